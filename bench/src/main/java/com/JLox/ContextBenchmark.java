@@ -0,0 +1,64 @@
+package com.JLox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.JLox.interpreter.MemorySink;
+
+// Runs one shared Program in a fresh Context per invocation, through the embedding
+// API. Compare throughput at -t 1 and -t N: with nothing shared between Contexts
+// but the Program (and its racily updated execution caches) it should grow with
+// the number of threads.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextBenchmark {
+  @State(Scope.Benchmark)
+  public static class Shared {
+    @Param({
+      Scripts.StraightLine,
+      Scripts.NestedLoops
+    })
+    public String shape;
+
+    @Param({"1000"})
+    public int size;
+
+    @Param({"tree", "vm"})
+    public String engine;
+
+    JLoxEngine jlox;
+    Program program;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      jlox = new JLoxEngine(engine.equals("vm"), false, Interpreter.DefaultJitThreshold);
+      program = jlox.compile(Scripts.generate(shape, size), Scripts.FailOnError);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class PerThread {
+    final MemorySink sink = new MemorySink();
+  }
+
+  @Benchmark
+  public boolean run(Shared shared, PerThread thread) {
+    thread.sink.clear();
+    return shared.jlox.newContext(thread.sink, Scripts.FailOnError).run(shared.program);
+  }
+}
@@ -0,0 +1,70 @@
+package com.JLox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.JLox.interpreter.Limits;
+import com.JLox.interpreter.MemorySink;
+
+// What fuel and deadline checks cost. "none" is the default run, where the check
+// is a decrement that never reaches zero; "fuel" and "deadline" set limits too
+// high to be reached. The loop compiler is off for all three, since limited runs
+// do not use it.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LimitsBenchmark {
+  @Param({
+    Scripts.StraightLine,
+    Scripts.NestedLoops
+  })
+  public String shape;
+
+  @Param({"10000"})
+  public int size;
+
+  @Param({"tree", "vm"})
+  public String engine;
+
+  @Param({"none", "fuel", "deadline"})
+  public String limit;
+
+  private JLoxEngine jlox;
+  private Program program;
+  private final MemorySink sink = new MemorySink();
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Limits limits;
+    switch (limit) {
+      case "none":     limits = null; break;
+      case "fuel":     limits = new Limits(Long.MAX_VALUE / 2, 0, TimeUnit.MILLISECONDS); break;
+      case "deadline": limits = new Limits(Limits.NoFuelLimit, 1, TimeUnit.HOURS); break;
+      default:
+        throw new IllegalArgumentException("Unknown limit: " + limit);
+    }
+    jlox = new JLoxEngine(engine.equals("vm"), false, 0, limits);
+    program = jlox.compile(Scripts.generate(shape, size), Scripts.FailOnError);
+  }
+
+  @Benchmark
+  public boolean run() {
+    sink.clear();
+    return jlox.newContext(sink, Scripts.FailOnError).run(program);
+  }
+}
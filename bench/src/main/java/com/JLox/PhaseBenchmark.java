@@ -0,0 +1,79 @@
+package com.JLox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.JLox.interpreter.MemorySink;
+import com.JLox.parser.Stmt;
+import com.JLox.scanner.Token;
+import com.JLox.scanner.TokenBuffer;
+
+// Measures scanning, parsing and interpretation separately, each on input
+// prepared by the previous phases during setup.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PhaseBenchmark {
+  @Param({
+    Scripts.NestedExpressions,
+    Scripts.StraightLine,
+    Scripts.NestedLoops,
+    Scripts.StringConcat
+  })
+  public String shape;
+
+  @Param({"1000", "10000"})
+  public int size;
+
+  private String source;
+  private TokenBuffer tokens;
+  private List<Stmt> statements;
+  private final MemorySink sink = new MemorySink();
+
+  @Setup(Level.Trial)
+  public void setup() {
+    source = Scripts.generate(shape, size);
+    tokens = new Scanner(source, Scripts.FailOnError).scanCompact();
+    statements = new Parser(tokens, Scripts.FailOnError).parse();
+    new Resolver().resolve(statements);
+  }
+
+  @Benchmark
+  public TokenBuffer scan() {
+    return new Scanner(source, Scripts.FailOnError).scanCompact();
+  }
+
+  // the Token-per-token representation the streaming mode still uses
+  @Benchmark
+  public List<Token> scanTokenObjects() {
+    return new Scanner(source, Scripts.FailOnError).scanTokens();
+  }
+
+  @Benchmark
+  public List<Stmt> parse() {
+    return new Parser(tokens, Scripts.FailOnError).parse();
+  }
+
+  @Benchmark
+  public Interpreter interpret() {
+    Interpreter interpreter = new Interpreter(sink, Scripts.FailOnError);
+    interpreter.interpret(statements);
+    return interpreter;
+  }
+}
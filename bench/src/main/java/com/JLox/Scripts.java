@@ -0,0 +1,92 @@
+package com.JLox;
+
+import com.tool.RuntimeError;
+
+// Generates JLox programs of a given shape and size for the benchmarks.
+final class Scripts {
+  private Scripts() {}
+
+  static final String NestedExpressions = "nested-expressions";
+  static final String StraightLine = "straight-line";
+  static final String NestedLoops = "nested-loops";
+  static final String StringConcat = "string-concat";
+
+  // the scripts are generated, so any error in one is a bug in the generator
+  static final ErrorReporter FailOnError = new ErrorReporter() {
+    @Override
+    public void syntaxError(int line, String where, String message) {
+      throw new IllegalStateException("[line " + line + "] Error" + where + ": " + message);
+    }
+
+    @Override
+    public void runtimeError(RuntimeError error) {
+      throw new IllegalStateException(error.getMessage() + " [line " + error.token.line + "]", error);
+    }
+  };
+
+  static String generate(String shape, int size) {
+    switch (shape) {
+      case NestedExpressions: return nestedExpressions(size);
+      case StraightLine:      return straightLine(size);
+      case NestedLoops:       return nestedLoops(size);
+      case StringConcat:      return stringConcat(size);
+      default:
+        throw new IllegalArgumentException("Unknown script shape: " + shape);
+    }
+  }
+
+  // size statements, each an expression nested 32 parentheses deep
+  private static String nestedExpressions(int size) {
+    StringBuilder source = new StringBuilder();
+    source.append("var x = 1;\n");
+    for (int i = 0; i < size; i++) {
+      source.append("var e").append(i).append(" = ");
+      for (int depth = 0; depth < 32; depth++) source.append('(');
+      source.append("x");
+      for (int depth = 0; depth < 32; depth++) {
+        source.append(depth % 2 == 0 ? " + " : " * ").append(depth).append(')');
+      }
+      source.append(";\n");
+    }
+    return source.toString();
+  }
+
+  // size declarations and assignments without any control flow
+  private static String straightLine(int size) {
+    StringBuilder source = new StringBuilder();
+    source.append("var v0 = 1;\n");
+    for (int i = 1; i < size; i++) {
+      source.append("var v").append(i).append(" = v").append(i - 1).append(" * 2 - ").append(i).append(";\n");
+      source.append("v").append(i).append(" = v").append(i).append(" / 3 + 1;\n");
+    }
+    return source.toString();
+  }
+
+  // two nested while loops running about size iterations of the inner body
+  private static String nestedLoops(int size) {
+    int n = (int)Math.max(1, Math.sqrt(size));
+    return "var sum = 0;\n"
+        + "var i = 0;\n"
+        + "while (i < " + n + ") {\n"
+        + "  var j = 0;\n"
+        + "  while (j < " + n + ") {\n"
+        + "    sum = sum + i * j;\n"
+        + "    j = j + 1;\n"
+        + "  }\n"
+        + "  i = i + 1;\n"
+        + "}\n"
+        + "for (var k = 0; k < " + n + "; k = k + 1) {\n"
+        + "  sum = sum - k;\n"
+        + "}\n";
+  }
+
+  // builds a size character string one concatenation at a time
+  private static String stringConcat(int size) {
+    return "var s = \"\";\n"
+        + "var i = 0;\n"
+        + "while (i < " + size + ") {\n"
+        + "  s = s + \"x\";\n"
+        + "  i = i + 1;\n"
+        + "}\n";
+  }
+}
@@ -0,0 +1,265 @@
+package com.JLox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.JLox.interpreter.Limits;
+import com.JLox.interpreter.MemorySink;
+import com.tool.RuntimeError;
+
+// Runs many scripts in one JVM on a fixed pool of threads. Every script gets its
+// own Context, so nothing but the compiled Program is shared between them, and
+// a source that appears more than once is only compiled once. Print output and
+// error reports are captured per script, and each script gets the exit status
+// jlox would have exited with for it alone.
+final class BatchRunner {
+  static final int NoInput = 66;
+
+  static final class Result {
+    final Path script;
+    final int status;
+    final long nanos;
+    // by the thread running the script, -1 when the JVM does not count it
+    final long allocated;
+    final String out;
+    final String err;
+
+    Result(Path script, int status, long nanos, long allocated, String out, String err) {
+      this.script = script;
+      this.status = status;
+      this.nanos = nanos;
+      this.allocated = allocated;
+      this.out = out;
+      this.err = err;
+    }
+  }
+
+  // a compiled source, or the status and errors of a source that did not compile
+  private static final class Compiled {
+    final Program program;
+    final int status;
+    final String errors;
+
+    Compiled(Program program, int status, String errors) {
+      this.program = program;
+      this.status = status;
+      this.errors = errors;
+    }
+  }
+
+  // compiled programs kept for sources that come up again
+  private static final int CachedPrograms = 256;
+
+  private final JLoxEngine engine;
+  private final int threads;
+  // the most recently used programs, by the SHA-256 of their source, so neither
+  // the sources nor their trees pile up over a long batch; guarded by itself
+  private final Map<ByteBuffer, CompletableFuture<Compiled>> programs =
+      new LinkedHashMap<ByteBuffer, CompletableFuture<Compiled>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CompletableFuture<Compiled>> eldest) {
+          return size() > CachedPrograms;
+        }
+      };
+
+  BatchRunner(JLoxEngine engine, int threads) {
+    this.engine = engine;
+    this.threads = threads;
+  }
+
+  // The .jlox files under a directory, in path order, or the scripts a manifest
+  // lists one per line; relative paths in a manifest are against its directory.
+  static List<Path> scripts(Path directoryOrManifest) throws IOException {
+    if (Files.isDirectory(directoryOrManifest)) {
+      try (Stream<Path> files = Files.walk(directoryOrManifest)) {
+        return files
+            .filter(file -> file.toString().endsWith(".jlox") && Files.isRegularFile(file))
+            .sorted()
+            .collect(Collectors.toList());
+      }
+    }
+
+    Path base = directoryOrManifest.toAbsolutePath().getParent();
+    List<Path> scripts = new ArrayList<>();
+    for (String line : Files.readAllLines(directoryOrManifest, StandardCharsets.UTF_8)) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) continue;
+      scripts.add(base.resolve(line));
+    }
+    return scripts;
+  }
+
+  // results in the order of 'scripts'
+  List<Result> run(List<Path> scripts) {
+    ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "jlox-batch");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<Result>> pending = new ArrayList<>(scripts.size());
+      for (Path script : scripts) {
+        pending.add(pool.submit(() -> run(script)));
+      }
+
+      List<Result> results = new ArrayList<>(scripts.size());
+      for (Future<Result> result : pending) {
+        results.add(result.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("batch interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private Result run(Path script) {
+    long start = System.nanoTime();
+    long allocated = Limits.allocatedBytes();
+    MemorySink out = new MemorySink();
+    StringBuilder err = new StringBuilder();
+    int status;
+    try {
+      status = run(script, out, err);
+    } catch (Throwable e) {
+      // e.g. a StackOverflowError on a deeply nested source; only this script fails
+      err.append(internalError(e));
+      status = 70;
+    }
+
+    long nanos = System.nanoTime() - start;
+    if (allocated >= 0) allocated = Limits.allocatedBytes() - allocated;
+    return new Result(script, status, nanos, allocated, out.contents(), err.toString());
+  }
+
+  // the script's exit status
+  private int run(Path script, MemorySink out, StringBuilder err) {
+    String source;
+    try {
+      source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      err.append("Cannot read script: ").append(e).append('\n');
+      return NoInput;
+    }
+
+    Compiled compiled = compile(source);
+    if (compiled.program == null) {
+      err.append(compiled.errors);
+      return compiled.status;
+    }
+
+    ErrorReporter errors = new ErrorReporter() {
+      @Override
+      public void syntaxError(int line, String where, String message) {
+        err.append("[line ").append(line).append("] Error").append(where).append(": ").append(message).append('\n');
+      }
+
+      @Override
+      public void runtimeError(RuntimeError error) {
+        err.append(error.getMessage()).append("\n[line ").append(error.token.line).append("]\n");
+      }
+    };
+    return engine.newContext(out, errors).run(compiled.program) ? 0 : 70;
+  }
+
+  private static String internalError(Throwable e) {
+    return "Internal error: " + e + "\n";
+  }
+
+  // The first thread to see a source compiles it; the others wait for that. A
+  // compile that crashes is remembered like one with syntax errors, so the
+  // scripts sharing its source fail the same way without trying again.
+  private Compiled compile(String source) {
+    ByteBuffer key = digest(source);
+    CompletableFuture<Compiled> mine = new CompletableFuture<>();
+    CompletableFuture<Compiled> existing;
+    synchronized (programs) {
+      existing = programs.putIfAbsent(key, mine);
+    }
+    if (existing != null) return existing.join();
+
+    StringBuilder errors = new StringBuilder();
+    try {
+      Program program = engine.compile(source, new ErrorReporter() {
+        @Override
+        public void syntaxError(int line, String where, String message) {
+          errors.append("[line ").append(line).append("] Error").append(where).append(": ").append(message).append('\n');
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+          throw new IllegalStateException("runtime error while compiling", error);
+        }
+      });
+      mine.complete(new Compiled(program, 65, errors.toString()));
+    } catch (Throwable e) {
+      mine.complete(new Compiled(null, 70, errors + internalError(e)));
+    }
+    return mine.join();
+  }
+
+  private static ByteBuffer digest(String source) {
+    try {
+      MessageDigest sha = MessageDigest.getInstance("SHA-256");
+      return ByteBuffer.wrap(sha.digest(source.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform has SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Writes each script's captured output to <name>.out and <name>.err under
+  // 'directory', where the name is the script's path relative to 'root' (the
+  // batch directory or the manifest's).
+  static void writeOutput(Path root, Path directory, List<Result> results) throws IOException {
+    root = root.toAbsolutePath().normalize();
+    for (int i = 0; i < results.size(); i++) {
+      Result result = results.get(i);
+      Path script = result.script.toAbsolutePath().normalize();
+      Path name = script.startsWith(root) ? root.relativize(script) : Path.of(i + "-" + script.getFileName());
+      Path target = directory.resolve(name.toString());
+      Files.createDirectories(target.toAbsolutePath().getParent());
+      Files.write(target.resolveSibling(target.getFileName() + ".out"), result.out.getBytes(StandardCharsets.UTF_8));
+      Files.write(target.resolveSibling(target.getFileName() + ".err"), result.err.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  // One line per script (status, wall time, bytes allocated, path), then the
+  // totals and the script that allocated the most.
+  static void report(List<Result> results, long nanos, PrintStream out) {
+    int failed = 0;
+    Result peak = null;
+    for (Result result : results) {
+      if (result.status != 0) failed++;
+      if (peak == null || result.allocated > peak.allocated) peak = result;
+      out.printf("%d\t%.3f ms\t%d B\t%s%n", result.status, result.nanos / 1e6, result.allocated, result.script);
+    }
+    double seconds = nanos / 1e9;
+    out.printf("%d scripts, %d failed, %.3f s, %.1f scripts/s%n",
+        results.size(), failed, seconds, seconds > 0 ? results.size() / seconds : 0.0);
+    if (peak != null && peak.allocated >= 0) {
+      out.printf("peak allocation %d B by %s%n", peak.allocated, peak.script);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package com.JLox;
+
+import com.JLox.interpreter.Limits;
+import com.JLox.interpreter.OutputSink;
+import com.JLox.vm.VM;
+import com.tool.RuntimeError;
+
+// One isolated JLox session: its own globals, print output and error reporter.
+// Globals persist from one run() to the next, like in the REPL. A Context must
+// only be used by one thread at a time; threads share Programs, not Contexts.
+public final class Context {
+  private final OutputSink out;
+  private final ErrorReporter errors;
+  // exactly one of these, depending on the engine that made the context
+  private final Interpreter interpreter;
+  private final VM vm;
+
+  Context(boolean useVm, int jitThreshold, Limits limits, OutputSink out, ErrorReporter errors) {
+    this.out = out;
+    this.errors = errors;
+    if (useVm) {
+      this.interpreter = null;
+      this.vm = new VM(out);
+      this.vm.setLimits(limits);
+    } else {
+      this.interpreter = new Interpreter(out, errors);
+      this.interpreter.setJitThreshold(jitThreshold);
+      this.interpreter.setLimits(limits);
+      this.vm = null;
+    }
+  }
+
+  // Returns false when the program stopped at a runtime error, which has been
+  // passed to the reporter. The output sink is flushed either way.
+  public boolean run(Program program) {
+    if (program.isCompiledForVm() != (vm != null)) {
+      throw new IllegalArgumentException("program was compiled for the other engine");
+    }
+
+    try {
+      if (vm == null) return interpreter.interpret(program.statements);
+
+      try {
+        vm.interpret(program.chunk);
+        return true;
+      } catch (RuntimeError error) {
+        errors.runtimeError(error);
+        return false;
+      }
+    } finally {
+      out.flush();
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package com.JLox;
+
+import com.tool.RuntimeError;
+
+// Receives the errors found while compiling and running a script. The command
+// line reports them on stderr; embedders pass their own per compile() call and
+// per Context, so errors of one script never reach another.
+public interface ErrorReporter {
+  // 'where' is "", " at end" or " at '<lexeme>'", as in "[line 3] Error at 'x': ..."
+  void syntaxError(int line, String where, String message);
+
+  void runtimeError(RuntimeError error);
+}
@@ -1,20 +1,95 @@
 package com.JLox;
 
+import static com.JLox.scanner.TokenType.BangEqual;
+import static com.JLox.scanner.TokenType.EqualEqual;
+import static com.JLox.scanner.TokenType.Minus;
 import static com.JLox.scanner.TokenType.Or;
 
 import java.util.List;
 
 import com.JLox.interpreter.Environment;
+import com.JLox.interpreter.Limits;
+import com.JLox.interpreter.LoxString;
+import com.JLox.interpreter.OutputSink;
+import com.JLox.interpreter.UnexpectedResultException;
+import com.JLox.jit.CompiledLoop;
+import com.JLox.jit.LoopCompiler;
+import static com.JLox.interpreter.Values.*;
+import com.JLox.metrics.Events;
+import com.JLox.metrics.Metrics;
 import com.JLox.parser.Expr;
+import com.JLox.profiler.StatementMarker;
 import com.JLox.scanner.Token;
 import com.tool.RuntimeError;
 import com.JLox.parser.Stmt;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-  private Environment environment = new Environment();
+  // Binary and Unary nodes start uninitialized and specialize on the operand types
+  // they first see. A double specialization evaluates its operands through
+  // evaluateDouble() without boxing; when an operand turns out not to be a number
+  // the node falls back to Generic for good.
+  private static final int Uninitialized = 0;
+  private static final int Generic = 1;
+  private static final int AddDouble = 2;
+  private static final int SubtractDouble = 3;
+  private static final int MultiplyDouble = 4;
+  private static final int DivideDouble = 5;
+  private static final int GreaterDouble = 6;
+  private static final int GreaterEqualDouble = 7;
+  private static final int LessDouble = 8;
+  private static final int LessEqualDouble = 9;
+  private static final int EqualDouble = 10;
+  private static final int NotEqualDouble = 11;
+  private static final int NegateDouble = 12;
 
-  void interpret(List<Stmt> statements) {
+  // A while loop that has gone around this many times (over all its runs so far)
+  // is compiled to JVM bytecode, and the rest of its iterations run compiled.
+  static final int DefaultJitThreshold = 1000;
+
+  private final Environment globals = new Environment();
+  private Environment environment = globals;
+  private final OutputSink out;
+  private final ErrorReporter errors;
+  private int jitThreshold = DefaultJitThreshold;
+  // the statement being executed, for the sampling profiler; null when not profiling
+  private StatementMarker profile = null;
+  // runtime counters, kept here and handed to Metrics after each top-level statement
+  private long statementsExecuted = 0;
+  private long environmentsCreated = 0;
+  private long environmentHops = 0;
+  // variable reads and writes served by the slot the Resolver gave them, and
+  // those that went to the globals by name
+  private long slotLookups = 0;
+  private long globalLookups = 0;
+  // null when runs are unlimited; otherwise 'steps' counts down to the next
+  // meter check, and without limits it starts too high to ever get there
+  private Limits limits = null;
+  private Limits.Meter meter = null;
+  private long steps = Long.MAX_VALUE;
+
+  Interpreter(OutputSink out, ErrorReporter errors) {
+    this.out = out;
+    this.errors = errors;
+  }
+
+  void setProfile(StatementMarker profile) {
+    this.profile = profile;
+  }
+
+  // Applies to each interpret() call from now on. Loops are not compiled while
+  // limits are set, the compiled code does not count steps.
+  void setLimits(Limits limits) {
+    this.limits = limits;
+  }
+
+  // 0 turns the loop compiler off
+  void setJitThreshold(int jitThreshold) {
+    this.jitThreshold = jitThreshold;
+  }
+
+  // false when the program stopped at a runtime error
+  boolean interpret(List<Stmt> statements) {
     // try {
     //   Object value = evaluate(expression);
     //   System.out.println(stringify(value));
@@ -22,13 +97,46 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     //    Main.runtimeError(error);
     // }
 
+    Object event = Events.enabled() ? Events.beginExecute() : null;
+
+    if (limits != null) {
+      meter = limits.start();
+      steps = meter.first();
+    } else {
+      meter = null;
+      steps = Long.MAX_VALUE;
+    }
+
+    boolean completed = false;
+    long executed = 0;
     try {
       for (Stmt statement : statements) {
         execute(statement);
+        executed += publishCounters();
       }
+      completed = true;
     } catch (RuntimeError error) {
-      Main.runtimeError(error);
+      executed += publishCounters();
+      Metrics.runtimeError();
+      if (profile != null) profile.set(null);
+      errors.runtimeError(error);
     }
+
+    if (event != null) Events.commitExecute(event, statements.size(), executed, !completed);
+    return completed;
+  }
+
+  // Adds the counts since the last call to Metrics; returns the statements.
+  private long publishCounters() {
+    long executed = statementsExecuted;
+    Metrics.add(executed, environmentsCreated, environmentHops);
+    Metrics.addLookups(slotLookups, globalLookups);
+    statementsExecuted = 0;
+    environmentsCreated = 0;
+    environmentHops = 0;
+    slotLookups = 0;
+    globalLookups = 0;
+    return executed;
   }
   
   @Override
@@ -50,8 +158,22 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) {
+    if (expr.state == NegateDouble) {
+      try {
+        return negateDouble(expr);
+      } catch (UnexpectedResultException e) {
+        return e.result;
+      }
+    }
+
     Object right = evaluate(expr.right);
+    if (expr.state == Uninitialized) {
+      expr.state = expr.operator.type == Minus && right instanceof Double ? NegateDouble : Generic;
+    }
+    return unary(expr, right);
+  }
 
+  private Object unary(Expr.Unary expr, Object right) {
     switch (expr.operator.type) {
       case Bang:
         return !isTruthy(right);
@@ -64,9 +186,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  private double negateDouble(Expr.Unary expr) throws UnexpectedResultException {
+    try {
+      return -evaluateDouble(expr.right);
+    } catch (UnexpectedResultException e) {
+      expr.state = Generic;
+      return (double)unary(expr, e.result);
+    }
+  }
+
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return environment.get(expr.name);
+    if (expr.depth >= 0) {
+      slotLookups++;
+      environmentHops += expr.depth;
+      return environment.getAt(expr.depth, expr.slot);
+    }
+    globalLookups++;
+    return globals.get(expr.name);
   }
 
   private void checkNumberOperand(Token operator, Object operand) {
@@ -83,8 +220,130 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return expr.accept(this);
   }
 
+  // Evaluates an expression that is expected to produce a number, staying on
+  // primitives through specialized nodes. Anything else is reported through
+  // UnexpectedResultException.
+  private double evaluateDouble(Expr expr) throws UnexpectedResultException {
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary)expr;
+      int state = binary.state;
+      if (state >= AddDouble && state <= DivideDouble) return binaryDouble(binary, state);
+    } else if (expr instanceof Expr.Literal) {
+      Object value = ((Expr.Literal)expr).value;
+      if (value instanceof Double) return (double)value;
+    } else if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary)expr;
+      if (unary.state == NegateDouble) return negateDouble(unary);
+    } else if (expr instanceof Expr.Grouping) {
+      return evaluateDouble(((Expr.Grouping)expr).expression);
+    } else if (expr instanceof Expr.Variable) {
+      Expr.Variable variable = (Expr.Variable)expr;
+      if (variable.depth >= 0) {
+        slotLookups++;
+        environmentHops += variable.depth;
+        return environment.getDoubleAt(variable.depth, variable.slot);
+      }
+      globalLookups++;
+      return globals.getDouble(variable.name);
+    }
+
+    Object value = evaluate(expr);
+    if (value instanceof Double) return (double)value;
+    throw new UnexpectedResultException(value);
+  }
+
+  // Whether the expression is a node specialized on numbers, so storing its result
+  // through evaluateDouble() saves boxing it.
+  private static boolean producesDouble(Expr expr) {
+    if (expr instanceof Expr.Binary) {
+      int state = ((Expr.Binary)expr).state;
+      return state >= AddDouble && state <= DivideDouble;
+    }
+    return expr instanceof Expr.Unary && ((Expr.Unary)expr).state == NegateDouble;
+  }
+
+  // Truthiness of an expression; comparisons specialized on numbers never box,
+  // and other equality tests compare their operands directly.
+  private boolean evaluateBoolean(Expr expr) {
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary)expr;
+      int state = binary.state;
+      if (state >= GreaterDouble && state <= NotEqualDouble) return binaryBoolean(binary, state);
+      if (state == Generic && (binary.operator.type == EqualEqual || binary.operator.type == BangEqual)) {
+        int operands = binary.operands;
+        boolean equal = isEqual(operand(binary.left, operands >> 2), operand(binary.right, operands & 3));
+        return binary.operator.type == EqualEqual ? equal : !equal;
+      }
+    }
+    return isTruthy(evaluate(expr));
+  }
+
+  // Operands the Resolver found to be variables or literals are read here
+  // without a visitor call; see Resolver.kind().
+  private Object operand(Expr expr, int kind) {
+    switch (kind) {
+      case Resolver.LocalOperand: {
+        Expr.Variable variable = (Expr.Variable)expr;
+        slotLookups++;
+        environmentHops += variable.depth;
+        return environment.getAt(variable.depth, variable.slot);
+      }
+      case Resolver.GlobalOperand:
+        globalLookups++;
+        return globals.get(((Expr.Variable)expr).name);
+      case Resolver.LiteralOperand: return ((Expr.Literal)expr).value;
+      default: return evaluate(expr);
+    }
+  }
+
+  private double operandDouble(Expr expr, int kind) throws UnexpectedResultException {
+    switch (kind) {
+      case Resolver.LocalOperand: {
+        Expr.Variable variable = (Expr.Variable)expr;
+        slotLookups++;
+        environmentHops += variable.depth;
+        return environment.getDoubleAt(variable.depth, variable.slot);
+      }
+      case Resolver.GlobalOperand:
+        globalLookups++;
+        return globals.getDouble(((Expr.Variable)expr).name);
+      case Resolver.LiteralOperand: {
+        Object value = ((Expr.Literal)expr).value;
+        if (value instanceof Double) return (double)value;
+        throw new UnexpectedResultException(value);
+      }
+      default: return evaluateDouble(expr);
+    }
+  }
+
   private void execute(Stmt stmt) {
+    if (--steps < 0) steps = meter.next(stmt.line);
+    statementsExecuted++;
+    if (profile == null) {
+      stmt.accept(this);
+      return;
+    }
+
+    // not restored when a runtime error ends the run, interpret() clears it then
+    Stmt outer = profile.get();
+    profile.set(stmt);
     stmt.accept(this);
+    profile.set(outer);
+  }
+
+  // execute() for a block run in an environment the caller provides
+  private void execute(Stmt.Block block, Environment environment) {
+    if (--steps < 0) steps = meter.next(block.line);
+    statementsExecuted++;
+    if (profile == null) {
+      executeBlock(block.statements, environment);
+      return;
+    }
+
+    Stmt outer = profile.get();
+    profile.set(block);
+    executeBlock(block.statements, environment);
+    profile.set(outer);
   }
 
   void executeBlock(List<Stmt> statements, Environment environment) {
@@ -102,12 +361,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(environment));
+    if (stmt.slots == 0) {
+      // no frame of its own, its variables (if any) live in the enclosing one
+      for (Stmt statement : stmt.statements) {
+        execute(statement);
+      }
+      return null;
+    }
+    environmentsCreated++;
+    executeBlock(stmt.statements, new Environment(environment, stmt.slots));
     return null;
   }
 
   @Override 
   public Void visitExpressionStmt(Stmt.Expression stmt) {
+    if (stmt.expression instanceof Expr.Assign) {
+      // the value is unused, so a number can be stored without boxing it
+      assign((Expr.Assign)stmt.expression);
+      return null;
+    }
     evaluate(stmt.expression);
     return null;
   }
@@ -115,23 +387,43 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    if (value instanceof Double) {
+      out.println((double)value);
+    } else {
+      out.println(stringify(value));
+    }
     return null;
   }
 
   @Override
     public Void visitVarStmt(Stmt.Var stmt) {
       Object value = null;
-      if (stmt.initializer != null) {
+      if (stmt.initializer != null && producesDouble(stmt.initializer)) {
+        try {
+          double number = evaluateDouble(stmt.initializer);
+          if (stmt.slot >= 0) {
+            environment.defineDoubleAt(stmt.slot, number);
+          } else {
+            globals.defineDouble(stmt.name, number);
+          }
+          return null;
+        } catch (UnexpectedResultException e) {
+          value = e.result;
+        }
+      } else if (stmt.initializer != null) {
         value = evaluate(stmt.initializer);
       }
-      environment.define(stmt.name.lexeme, value);
+      if (stmt.slot >= 0) {
+        environment.defineAt(stmt.slot, value);
+      } else {
+        globals.define(stmt.name, value);
+      }
       return null;
   }
 
   @Override
   public Void visitIfStmt(Stmt.If stmt) {
-    if(isTruthy(evaluate(stmt.condition))) {
+    if(evaluateBoolean(stmt.condition)) {
       execute(stmt.thenBranch);
     } else if (stmt.elseBranch != null) {
       execute(stmt.elseBranch);
@@ -141,25 +433,218 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
-    while (isTruthy(evaluate(stmt.condition))) {
-      execute(stmt.body);
-    } 
+    // a body that is a frame gets one environment for all iterations; see Resolver
+    Stmt.Block frame = stmt.body instanceof Stmt.Block && ((Stmt.Block)stmt.body).slots > 0
+        ? (Stmt.Block)stmt.body : null;
+    Environment scope = null;
+    while (evaluateBoolean(stmt.condition)) {
+      if (frame != null) {
+        if (scope == null) {
+          environmentsCreated++;
+          scope = new Environment(environment, frame.slots);
+        }
+        execute(frame, scope);
+      } else {
+        execute(stmt.body);
+      }
+      if (--steps < 0) steps = meter.next(stmt.line);
+      // on-stack replacement at the back edge, between two iterations
+      if (jitThreshold > 0 && limits == null && ++stmt.backedges >= jitThreshold && enterCompiled(stmt)) break;
+    }
     return null;
   }
 
+  // Runs the rest of the loop compiled. Returns false when the loop cannot be
+  // compiled or its variables no longer have the types it was compiled for.
+  private boolean enterCompiled(Stmt.While stmt) {
+    // read once: contexts sharing the tree may store their own result here at
+    // any time, including null for a loop they could not compile
+    CompiledLoop compiled = (CompiledLoop)stmt.compiled;
+    if (compiled == null) {
+      compiled = LoopCompiler.compile(stmt, environment, globals);
+      if (compiled == null) {
+        // unsupported, don't count towards another attempt
+        stmt.backedges = Integer.MIN_VALUE;
+        return false;
+      }
+      stmt.compiled = compiled;
+    }
+
+    if (compiled.enter(environment, globals, out)) return true;
+    // try again after another round of iterations
+    stmt.backedges = 0;
+    return false;
+  }
+
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
-    environment.assign(expr.name, value);
-
+    store(expr, value);
     return value;
   }
+
+  // An assignment whose value is not used.
+  private void assign(Expr.Assign expr) {
+    double value;
+    try {
+      if (expr.fused != 0) {
+        // x = x + e, see Resolver.fusion()
+        Expr.Binary sum = (Expr.Binary)expr.value;
+        if (sum.state != AddDouble) {
+          store(expr, evaluate(sum));
+          return;
+        }
+        if (expr.fused == Resolver.IncrementSelf && expr.depth >= 0) {
+          increment(expr, sum);
+          return;
+        }
+        value = binaryDouble(sum, AddDouble);
+      } else if (producesDouble(expr.value)) {
+        value = evaluateDouble(expr.value);
+      } else {
+        store(expr, evaluate(expr.value));
+        return;
+      }
+    } catch (UnexpectedResultException e) {
+      store(expr, e.result);
+      return;
+    }
+    if (expr.depth >= 0) {
+      slotLookups++;
+      environmentHops += expr.depth;
+      environment.assignDoubleAt(expr.depth, expr.slot, value);
+    } else {
+      globalLookups++;
+      globals.assignDouble(expr.name, value);
+    }
+  }
+
+  // i = i + 1 on a local reads and writes its slot in one step
+  private void increment(Expr.Assign expr, Expr.Binary sum) {
+    Object addend = ((Expr.Literal)sum.right).value;
+    slotLookups++;
+    environmentHops += expr.depth;
+    try {
+      environment.addDoubleAt(expr.depth, expr.slot, (double)addend);
+    } catch (UnexpectedResultException e) {
+      // what binaryDouble() does when the variable is not a number
+      sum.state = Generic;
+      store(expr, binary(sum, e.result, addend));
+    }
+  }
+
+  private void store(Expr.Assign expr, Object value) {
+    if (expr.depth >= 0) {
+      slotLookups++;
+      environmentHops += expr.depth;
+      environment.assignAt(expr.depth, expr.slot, value);
+    } else {
+      globalLookups++;
+      globals.assign(expr.name, value);
+    }
+  }
   
   @Override
   public Object visitBinaryExpr(Expr.Binary expr) {
+    int state = expr.state;
+    if (state >= AddDouble && state <= DivideDouble) {
+      try {
+        return binaryDouble(expr, state);
+      } catch (UnexpectedResultException e) {
+        return e.result;
+      }
+    } else if (state >= GreaterDouble) {
+      return binaryBoolean(expr, state);
+    }
+
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right);
-    
+    if (state == Uninitialized) specialize(expr, left, right);
+    return binary(expr, left, right);
+  }
+
+  private void specialize(Expr.Binary expr, Object left, Object right) {
+    if (!(left instanceof Double && right instanceof Double)) {
+      expr.state = Generic;
+      return;
+    }
+
+    switch (expr.operator.type) {
+      case Plus:         expr.state = AddDouble; break;
+      case Minus:        expr.state = SubtractDouble; break;
+      case Star:         expr.state = MultiplyDouble; break;
+      case Slash:        expr.state = DivideDouble; break;
+      case Greater:      expr.state = GreaterDouble; break;
+      case GreaterEqual: expr.state = GreaterEqualDouble; break;
+      case Less:         expr.state = LessDouble; break;
+      case LessEqual:    expr.state = LessEqualDouble; break;
+      case EqualEqual:   expr.state = EqualDouble; break;
+      case BangEqual:    expr.state = NotEqualDouble; break;
+      default:           expr.state = Generic; break;
+    }
+  }
+
+  // state is read once by the caller so a concurrent deoptimization cannot
+  // change the operation half way through
+  private double binaryDouble(Expr.Binary expr, int state) throws UnexpectedResultException {
+    int operands = expr.operands;
+    double left;
+    try {
+      left = operandDouble(expr.left, operands >> 2);
+    } catch (UnexpectedResultException e) {
+      return deoptimize(expr, e.result, evaluate(expr.right));
+    }
+    double right;
+    try {
+      right = operandDouble(expr.right, operands & 3);
+    } catch (UnexpectedResultException e) {
+      return deoptimize(expr, left, e.result);
+    }
+
+    switch (state) {
+      case AddDouble:      return left + right;
+      case SubtractDouble: return left - right;
+      case MultiplyDouble: return left * right;
+      default:             return left / right;
+    }
+  }
+
+  private double deoptimize(Expr.Binary expr, Object left, Object right) throws UnexpectedResultException {
+    expr.state = Generic;
+    Object result = binary(expr, left, right);
+    if (result instanceof Double) return (double)result;
+    throw new UnexpectedResultException(result);
+  }
+
+  private boolean binaryBoolean(Expr.Binary expr, int state) {
+    int operands = expr.operands;
+    double left;
+    try {
+      left = operandDouble(expr.left, operands >> 2);
+    } catch (UnexpectedResultException e) {
+      expr.state = Generic;
+      return (boolean)binary(expr, e.result, evaluate(expr.right));
+    }
+    double right;
+    try {
+      right = operandDouble(expr.right, operands & 3);
+    } catch (UnexpectedResultException e) {
+      expr.state = Generic;
+      return (boolean)binary(expr, left, e.result);
+    }
+
+    switch (state) {
+      case GreaterDouble:      return left > right;
+      case GreaterEqualDouble: return left >= right;
+      case LessDouble:         return left < right;
+      case LessEqualDouble:    return left <= right;
+      // same as Double.equals, which isEqual uses
+      case EqualDouble:        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+      default:                 return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+    }
+  }
+
+  private Object binary(Expr.Binary expr, Object left, Object right) {
     switch (expr.operator.type) {
       case Greater:
       checkNumberOperand(expr.operator, left, right);
@@ -174,8 +659,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       checkNumberOperand(expr.operator, left, right);
       return (double)left <= (double)right;
       case Plus:
-      if (left instanceof String || right instanceof String) {
-        return stringify(left) + stringify(right);
+      if (isString(left) || isString(right)) {
+        Object result = LoxString.concat(left, right);
+        if (limits != null) limits.checkString(result, expr.operator.line);
+        return result;
       }
       if (left instanceof Double && right instanceof Double) {
         return (double)left + (double)right;
@@ -205,30 +692,4 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     if(left instanceof Double && right instanceof Double) return;
     throw new RuntimeError(operator, "Operands must be numbers.");
   }
-
-  private boolean isTruthy(Object object) {
-    if (object == null) return false;
-    if (object instanceof Boolean) return (boolean)object;
-    return true;
-  }
-
-  private boolean isEqual(Object a, Object b) {
-    if(a == null && b == null) return true;
-    if (a == null) return false;
-
-    return a.equals(b);
-  }
-
-  private String stringify(Object object) {
-    if(object == null) return "nil";
-
-    if (object instanceof Double) {
-      String text = object.toString();
-      if (text.endsWith(".0")) {
-        text = text.substring(0, text.length()-2);
-      }
-      return text;
-    }
-    return object.toString();
-  }
 }
@@ -0,0 +1,92 @@
+package com.JLox;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.JLox.interpreter.Limits;
+import com.JLox.interpreter.OutputSink;
+import com.JLox.optimizer.Optimizer;
+import com.JLox.parser.Stmt;
+import com.JLox.vm.Compiler;
+import com.tool.RuntimeError;
+
+// Entry point for embedding JLox in a Java program:
+//
+//   JLoxEngine engine = new JLoxEngine();
+//   Program program = engine.compile(source, errors);
+//   if (program != null) engine.newContext(out, errors).run(program);
+//
+// An engine only holds settings and can be shared by any number of threads. A
+// Program is compiled once and can then run in many Contexts concurrently; each
+// Context has its own globals, output sink and error reporter.
+public final class JLoxEngine {
+  private final boolean useVm;
+  private final boolean optimize;
+  private final int jitThreshold;
+  private final Limits limits;
+
+  // the tree-walking interpreter without the optimizer, as jlox runs by default
+  public JLoxEngine() {
+    this(false, false, Interpreter.DefaultJitThreshold);
+  }
+
+  // the settings of the --engine=vm, --optimize and --jit-threshold flags
+  public JLoxEngine(boolean useVm, boolean optimize, int jitThreshold) {
+    this(useVm, optimize, jitThreshold, null);
+  }
+
+  // and the --fuel and --timeout limits, applied to every run of every context;
+  // null for none
+  public JLoxEngine(boolean useVm, boolean optimize, int jitThreshold, Limits limits) {
+    this.useVm = useVm;
+    this.optimize = optimize;
+    this.jitThreshold = jitThreshold;
+    this.limits = limits;
+  }
+
+  // Returns null when the source has errors; they have gone to 'errors'.
+  public Program compile(String source, ErrorReporter errors) {
+    Counting counting = new Counting(errors);
+    List<Stmt> statements = ParallelFrontEnd.parse(source, counting);
+    if (counting.syntaxErrors > 0) return null;
+
+    if (optimize) statements = new Optimizer().optimize(statements);
+
+    if (useVm) {
+      try {
+        return new Program(null, new Compiler().compile(statements));
+      } catch (Compiler.CompileError error) {
+        errors.syntaxError(error.line, "", error.getMessage());
+        return null;
+      }
+    }
+
+    new Resolver().resolve(statements);
+    return new Program(Collections.unmodifiableList(statements), null);
+  }
+
+  public Context newContext(OutputSink out, ErrorReporter errors) {
+    return new Context(useVm, jitThreshold, limits, out, errors);
+  }
+
+  // passes errors on and counts them, the scanner and parser keep going after one
+  private static final class Counting implements ErrorReporter {
+    private final ErrorReporter errors;
+    int syntaxErrors = 0;
+
+    Counting(ErrorReporter errors) {
+      this.errors = errors;
+    }
+
+    @Override
+    public void syntaxError(int line, String where, String message) {
+      syntaxErrors++;
+      errors.syntaxError(line, where, message);
+    }
+
+    @Override
+    public void runtimeError(RuntimeError error) {
+      errors.runtimeError(error);
+    }
+  }
+}
@@ -3,11 +3,17 @@ package com.JLox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.jline.reader.EndOfFileException;
 import org.jline.reader.LineReader;
@@ -19,34 +25,175 @@ import org.jline.terminal.TerminalBuilder;
 
 import java.nio.charset.StandardCharsets;
 
+import com.JLox.cache.AstCache;
+import com.JLox.interpreter.ChannelSink;
+import com.JLox.interpreter.Limits;
+import com.JLox.interpreter.OutputSink;
+import com.JLox.metrics.Metrics;
+import com.JLox.optimizer.Optimizer;
 import com.JLox.parser.Expr;
 import com.JLox.parser.Stmt;
-import com.JLox.scanner.Token;
-import com.JLox.scanner.TokenType;
+import com.JLox.profiler.Profiler;
+import com.JLox.profiler.StatementMarker;
+import com.JLox.vm.Chunk;
+import com.JLox.vm.Compiler;
+import com.JLox.vm.VM;
 import com.tool.AstPrinter;
 import com.tool.RuntimeError;
 
 
 public class Main {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    // print output is buffered; flushed before anything goes to stderr and after each run
+    private static final OutputSink out = ChannelSink.stdout();
+    private static boolean hadError = false;
+    private static boolean hadRuntimeError = false;
+    private static final ErrorReporter reporter = new ErrorReporter() {
+        @Override
+        public void syntaxError(int line, String where, String message) {
+            out.flush();
+            System.err.println("[line " + line + "] Error" + where + ": " + message);
+            hadError = true;
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+            out.flush();
+            System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+            hadRuntimeError = true;
+        }
+    };
+    private static final Interpreter interpreter = new Interpreter(out, reporter);
+    private static final VM vm = new VM(out);
+    private static boolean useVm = false;
+    private static boolean optimize = false;
+    private static boolean optimizeReport = false;
+    private static boolean stream = false;
+    private static AstCache cache = null;
+    private static final long CacheMaxBytes = 64L * 1024 * 1024;
+    private static boolean profile = false;
+    // where --profile=FILE writes the collapsed stacks
+    private static String profileOutput = null;
+    private static Profiler profiler = null;
+    private static boolean metrics = false;
+    private static final long ProfileIntervalMicros = 10000;
+    private static int jitThreshold = Interpreter.DefaultJitThreshold;
+    private static int batchJobs = Runtime.getRuntime().availableProcessors();
+    private static String batchOutput = null;
+    private static long fuel = Limits.NoFuelLimit;
+    private static long timeoutMillis = 0;
+    private static long memoryBytes = Limits.NoMemoryLimit;
+    private static long allocatedAtStart = -1;
+    private static Limits limits = null;
+
     public static void main(String args[]) throws IOException {
+        List<String> scripts = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--engine=vm")) {
+                useVm = true;
+            } else if (arg.equals("--engine=tree")) {
+                useVm = false;
+            } else if (arg.equals("--optimize")) {
+                optimize = true;
+            } else if (arg.equals("--no-optimize")) {
+                optimize = false;
+            } else if (arg.startsWith("--cache-dir=")) {
+                cache = new AstCache(Paths.get(arg.substring("--cache-dir=".length())), CacheMaxBytes);
+            } else if (arg.equals("--profile")) {
+                profile = true;
+            } else if (arg.startsWith("--profile=")) {
+                profile = true;
+                profileOutput = arg.substring("--profile=".length());
+            } else if (arg.equals("--metrics")) {
+                metrics = true;
+            } else if (arg.equals("--stream")) {
+                stream = true;
+            } else if (arg.startsWith("--jit-threshold=")) {
+                try {
+                    jitThreshold = Integer.parseInt(arg.substring("--jit-threshold=".length()));
+                    interpreter.setJitThreshold(jitThreshold);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+            } else if (arg.startsWith("--jobs=")) {
+                try {
+                    batchJobs = Integer.parseInt(arg.substring("--jobs=".length()));
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+                if (batchJobs < 1) usage();
+            } else if (arg.startsWith("--fuel=") || arg.startsWith("--timeout=")) {
+                try {
+                    long value = Long.parseLong(arg.substring(arg.indexOf('=') + 1));
+                    if (value < 0) usage();
+                    if (arg.startsWith("--fuel=")) fuel = value; else timeoutMillis = value;
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+            } else if (arg.startsWith("--memory=")) {
+                memoryBytes = parseSize(arg.substring("--memory=".length()));
+                if (memoryBytes < 0) usage();
+            } else if (arg.startsWith("--batch-output=")) {
+                batchOutput = arg.substring("--batch-output=".length());
+            } else if (arg.equals("--optimize-report")) {
+                optimize = true;
+                optimizeReport = true;
+            } else if (arg.startsWith("--")) {
+                usage();
+            } else {
+                scripts.add(arg);
+            }
+        }
+
+        if (metrics) allocatedAtStart = Limits.allocatedBytes();
+        if (fuel != Limits.NoFuelLimit || timeoutMillis > 0 || memoryBytes != Limits.NoMemoryLimit) {
+            limits = new Limits(fuel, timeoutMillis, TimeUnit.MILLISECONDS, memoryBytes);
+            interpreter.setLimits(limits);
+            vm.setLimits(limits);
+        }
 
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        // the profiler follows the tree-walking interpreter's statements
+        boolean batch = scripts.size() == 2 && scripts.get(0).equals("batch");
+        if ((scripts.size() > 1 && !batch) || (profile && (useVm || batch))) {
+            usage();
+        } else if (batch) {
+            runBatch(scripts.get(1));
+        } else if (scripts.size() == 1) {
+            runFile(scripts.get(0));
         } else {
             runPrompt();
+            reportMetrics();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=tree|vm] [--optimize|--no-optimize|--optimize-report] [--stream] [--cache-dir=DIR] [--jit-threshold=N] [--fuel=N] [--timeout=MS] [--memory=SIZE] [--profile[=FILE]] [--metrics] [script]");
+        System.out.println("       jlox [--engine=tree|vm] [--optimize] [--jit-threshold=N] [--fuel=N] [--timeout=MS] [--memory=SIZE] [--jobs=N] [--batch-output=DIR] [--metrics] batch <dir|manifest>");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
-        byte bytes[] = Files.readAllBytes(Paths.get(path));
-        // run(new String(bytes, Charset.defaultCharset()));
-        run(new String(bytes, StandardCharsets.UTF_8));
+        if (profile) {
+            StatementMarker marker = new StatementMarker();
+            interpreter.setProfile(marker);
+            profiler = new Profiler(marker, ProfileIntervalMicros, TimeUnit.MICROSECONDS);
+            profiler.start();
+        }
+
+        if (stream) {
+            runStream(path);
+            if (profiler != null) reportProfile(profiler, path, null);
+        } else {
+            byte bytes[] = Files.readAllBytes(Paths.get(path));
+            // run(new String(bytes, Charset.defaultCharset()));
+            // the optimizer report counts what the optimizer removes, so it needs a real run
+            if (cache != null && !optimizeReport) {
+                runCached(bytes);
+            } else {
+                run(new String(bytes, StandardCharsets.UTF_8));
+            }
+            if (profiler != null) reportProfile(profiler, path, bytes);
+        }
+        reportMetrics();
 
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
@@ -151,37 +298,164 @@ public class Main {
       
 
     private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+        List<Stmt> statements = parse(source);
 
         // Stop if there was a syntax error.
         if (hadError) return;
 
+        Optimizer optimizer = new Optimizer();
+        execute(statements, optimizer);
+        reportOptimizer(optimizer);
+        out.flush();
+    }
+
+    // Like run(), but reuses the parsed (and optimized) program from the cache when
+    // the same source has been run before, and stores it there otherwise.
+    private static void runCached(byte[] source) {
+        String variant = optimize ? "optimized" : "parsed";
+        List<Stmt> statements = cache.load(source, variant);
+        if (statements == null) {
+            statements = parse(new String(source, StandardCharsets.UTF_8));
+            if (hadError) return;
+
+            if (optimize) statements = new Optimizer().optimize(statements);
+            cache.store(source, variant, statements);
+        }
+
+        runProgram(statements);
+        out.flush();
+    }
+
+    private static List<Stmt> parse(String source) {
+        return ParallelFrontEnd.parse(source, reporter);
+    }
+
+    // Runs each top-level declaration as soon as the parser has finished it, with
+    // tokens scanned on demand from the file, so memory stays bounded by the
+    // largest statement instead of the whole script.
+    private static void runStream(String path) throws IOException {
+        Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(path)), StandardCharsets.UTF_8);
+        Parser parser = new Parser(new Scanner(reader, reporter), reporter);
+        Optimizer optimizer = new Optimizer();
+
+        while (parser.hasNext()) {
+            Stmt statement = parser.next();
+            if (hadRuntimeError) break;
+            // after a syntax error keep parsing to report the rest, but run nothing more
+            if (hadError) continue;
+
+            execute(Collections.singletonList(statement), optimizer);
+        }
+        reportOptimizer(optimizer);
+        out.flush();
+    }
+
+    private static void execute(List<Stmt> statements, Optimizer optimizer) {
+        if (optimize) {
+            statements = optimizer.optimize(statements);
+        }
+        runProgram(statements);
+    }
+
+    private static void runProgram(List<Stmt> statements) {
+        if (useVm) {
+            runVm(statements);
+            return;
+        }
+
+        Resolver resolver = new Resolver();
+        resolver.resolve(statements);
+        if (profiler != null) profiler.add(statements);
+
         interpreter.interpret(statements);
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
+    private static void reportOptimizer(Optimizer optimizer) {
+        if (optimizeReport) {
+            out.flush();
+            System.err.println("[optimizer] removed " + optimizer.nodesRemoved()
+                    + " of " + optimizer.nodesBefore() + " nodes");
+        }
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+    private static void reportMetrics() {
+        if (metrics) {
+            out.flush();
+            Metrics.dump(System.err);
+            if (allocatedAtStart >= 0) {
+                System.err.println("[metrics] bytes allocated: " + (Limits.allocatedBytes() - allocatedAtStart));
+            }
+        }
     }
 
-    static void error(Token token, String message) {
-        if (token.type == TokenType.Eof) {
-        report(token.line, " at end", message);
-        } else {
-        report(token.line, " at '" + token.lexeme + "'",  message);
+    // a byte count with an optional k, m or g suffix (powers of 1024); -1 if malformed
+    private static long parseSize(String size) {
+        int shift = 0;
+        String digits = size;
+        if (!size.isEmpty()) {
+            switch (Character.toLowerCase(size.charAt(size.length() - 1))) {
+                case 'k': shift = 10; break;
+                case 'm': shift = 20; break;
+                case 'g': shift = 30; break;
+            }
+            if (shift > 0) digits = size.substring(0, size.length() - 1);
+        }
+        try {
+            long value = Long.parseLong(digits);
+            if (value < 0 || value > (Long.MAX_VALUE >> shift)) return -1;
+            return value << shift;
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+    // 'source' is null for a streamed script, whose lines are then shown by number only
+    private static void reportProfile(Profiler profiler, String path, byte[] source) throws IOException {
+        profiler.stop();
+        out.flush();
+        profiler.writeTable(System.err, source == null ? null : new String(source, StandardCharsets.UTF_8).split("\\R", -1));
+        if (profileOutput != null) {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(profileOutput), StandardCharsets.UTF_8))) {
+                profiler.writeCollapsed(writer, Paths.get(path).getFileName().toString());
+            }
+        }
+    }
+
+    // Runs every script of a directory or manifest in this JVM, prints a report
+    // and exits with 1 when any of them failed.
+    private static void runBatch(String path) throws IOException {
+        List<Path> scripts = BatchRunner.scripts(Paths.get(path));
+        JLoxEngine engine = new JLoxEngine(useVm, optimize, jitThreshold, limits);
+
+        long start = System.nanoTime();
+        List<BatchRunner.Result> results = new BatchRunner(engine, batchJobs).run(scripts);
+        long elapsed = System.nanoTime() - start;
+
+        if (batchOutput != null) {
+            Path root = Files.isDirectory(Paths.get(path)) ? Paths.get(path) : Paths.get(path).toAbsolutePath().getParent();
+            BatchRunner.writeOutput(root, Paths.get(batchOutput), results);
+        }
+        BatchRunner.report(results, elapsed, System.out);
+        reportMetrics();
+
+        for (BatchRunner.Result result : results) {
+            if (result.status != 0) System.exit(1);
+        }
+    }
+
+    private static void runVm(List<Stmt> statements) {
+        Chunk chunk;
+        try {
+            chunk = new Compiler().compile(statements);
+        } catch (Compiler.CompileError error) {
+            reporter.syntaxError(error.line, "", error.getMessage());
+            return;
+        }
+
+        try {
+            vm.interpret(chunk);
+        } catch (RuntimeError error) {
+            reporter.runtimeError(error);
+        }
     }
 }
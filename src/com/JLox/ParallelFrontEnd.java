@@ -0,0 +1,166 @@
+package com.JLox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.JLox.parser.Stmt;
+import com.tool.RuntimeError;
+
+// Scans and parses a large source in chunks on the common fork-join pool. The
+// source is split between top-level declarations, found by one quick pass that
+// only follows strings, comments and bracket nesting; each chunk is scanned from
+// the line it starts on, and the statement lists are joined in source order.
+//
+// Any syntax error sends the whole source through the sequential scanner and
+// parser again, which reports the errors, in the same order and with the same
+// recovery as always.
+final class ParallelFrontEnd {
+  // below this, splitting costs more than it saves
+  private static final int MinChunkChars = 64 * 1024;
+  // chunks per worker, so an uneven split still keeps every worker busy
+  private static final int ChunksPerWorker = 4;
+
+  private ParallelFrontEnd() {}
+
+  static List<Stmt> parse(String source, ErrorReporter errors) {
+    int workers = ForkJoinPool.getCommonPoolParallelism();
+    if (workers < 2 || source.length() < 2 * MinChunkChars) return sequential(source, errors);
+
+    char[] chars = source.toCharArray();
+    int chunkChars = Math.max(MinChunkChars, chars.length / (workers * ChunksPerWorker));
+    List<Chunk> chunks = split(chars, chunkChars);
+    if (chunks.size() < 2) return sequential(source, errors);
+
+    ForkJoinTask.invokeAll(chunks);
+    List<Stmt> statements = new ArrayList<>();
+    for (Chunk chunk : chunks) {
+      List<Stmt> part = chunk.join();
+      if (chunk.failed) return sequential(source, errors);
+      statements.addAll(part);
+    }
+    return statements;
+  }
+
+  private static List<Stmt> sequential(String source, ErrorReporter errors) {
+    Parser parser = new Parser(new Scanner(source, errors).scanCompact(), errors);
+    return parser.parse();
+  }
+
+  // Cuts before the first token of a top-level declaration once a chunk has
+  // reached chunkChars. A declaration ends with a ';' or '}' outside any
+  // brackets, unless an 'else' follows.
+  private static List<Chunk> split(char[] source, int chunkChars) {
+    List<Chunk> chunks = new ArrayList<>();
+    int chunkStart = 0;
+    int chunkLine = 1;
+    int line = 1;
+    int depth = 0;
+    boolean ended = false;
+
+    int i = 0;
+    while (i < source.length) {
+      char c = source[i];
+      if (c == '\n') {
+        line++;
+        i++;
+        continue;
+      }
+      if (c == ' ' || c == '\r' || c == '\t') {
+        i++;
+        continue;
+      }
+      if (c == '/' && i + 1 < source.length && source[i + 1] == '/') {
+        while (i < source.length && source[i] != '\n') i++;
+        continue;
+      }
+
+      if (ended && !isElse(source, i)) {
+        chunks.add(new Chunk(source, chunkStart, i, chunkLine));
+        chunkStart = i;
+        chunkLine = line;
+      }
+      ended = false;
+
+      switch (c) {
+        case '"':
+          for (i++; i < source.length && source[i] != '"'; i++) {
+            if (source[i] == '\n') line++;
+          }
+          break;
+        case '(':
+        case '{':
+          depth++;
+          break;
+        case ')':
+          depth--;
+          break;
+        case '}':
+          depth--;
+          ended = depth == 0 && i + 1 - chunkStart >= chunkChars;
+          break;
+        case ';':
+          ended = depth == 0 && i + 1 - chunkStart >= chunkChars;
+          break;
+      }
+      i++;
+    }
+
+    chunks.add(new Chunk(source, chunkStart, source.length, chunkLine));
+    return chunks;
+  }
+
+  private static boolean isElse(char[] source, int i) {
+    if (i + 4 > source.length) return false;
+    if (source[i] != 'e' || source[i + 1] != 'l' || source[i + 2] != 's' || source[i + 3] != 'e') return false;
+    if (i + 4 == source.length) return true;
+    char next = source[i + 4];
+    return !(next == '_' || Character.isLetterOrDigit(next));
+  }
+
+  private static final class Chunk extends ForkJoinTask<List<Stmt>> implements ErrorReporter {
+    private final char[] source;
+    private final int start;
+    private final int end;
+    private final int line;
+    private List<Stmt> statements;
+    // read after join(), which orders it after the write
+    private boolean failed = false;
+
+    Chunk(char[] source, int start, int end, int line) {
+      this.source = source;
+      this.start = start;
+      this.end = end;
+      this.line = line;
+    }
+
+    @Override
+    protected boolean exec() {
+      Scanner scanner = new Scanner(source, start, end, line, this);
+      statements = new Parser(scanner.scanCompact(), this).parse();
+      return true;
+    }
+
+    @Override
+    public List<Stmt> getRawResult() {
+      return statements;
+    }
+
+    @Override
+    protected void setRawResult(List<Stmt> value) {
+      statements = value;
+    }
+
+    // the sequential rerun reports the errors
+    @Override
+    public void syntaxError(int line, String where, String message) {
+      failed = true;
+    }
+
+    @Override
+    public void runtimeError(RuntimeError error) {
+      throw new IllegalStateException("runtime error while parsing", error);
+    }
+  }
+}
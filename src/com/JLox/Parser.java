@@ -4,19 +4,42 @@ import java.util.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import com.JLox.scanner.TokenType;
+import com.JLox.metrics.Events;
 import com.JLox.parser.Expr;
 import com.JLox.parser.Stmt;
 import com.JLox.scanner.Token;
+import com.JLox.scanner.TokenBuffer;
+import com.JLox.scanner.TokenSource;
 import static com.JLox.scanner.TokenType.*;
 
 public class Parser {
   private static class ParseError extends RuntimeException {}
 
-  private final List<Token> tokens;
-  private int current = 0;
+  // Tokens come either from a compact buffer, read by index, or from a
+  // TokenSource, where the parser only ever keeps the current and previous token.
+  private final TokenBuffer buffer;
+  private int index = 0;
+  private final TokenSource tokens;
+  private Token current;
+  private Token previous;
+  private final ErrorReporter errors;
+  private boolean hadError = false;
+
+  Parser(List<Token> tokens, ErrorReporter errors) {
+    this(tokens.iterator()::next, errors);
+  }
 
-  Parser(List<Token> tokens) {
+  Parser(TokenSource tokens, ErrorReporter errors) {
+    this.buffer = null;
     this.tokens = tokens;
+    this.errors = errors;
+    this.current = tokens.next();
+  }
+
+  Parser(TokenBuffer buffer, ErrorReporter errors) {
+    this.buffer = buffer;
+    this.tokens = null;
+    this.errors = errors;
   }
 
   List<Stmt> parse() {
@@ -26,13 +49,28 @@ public class Parser {
         //   return null;
         // }
         
+    Object event = Events.enabled() ? Events.beginParse() : null;
+
       List<Stmt> statements = new ArrayList<>();
         while (!isAtEnd()) {
           statements.add(declaration());
         }
+
+    if (event != null) Events.commitParse(event, statements.size(), hadError);
         return statements;
       }
 
+  // Streaming use: whether another top-level declaration follows.
+  boolean hasNext() {
+    return !isAtEnd();
+  }
+
+  // Streaming use: parses the next top-level declaration. Returns null after a
+  // syntax error, which has already been reported.
+  Stmt next() {
+    return declaration();
+  }
+
   private Expr expression() {
     // return equality();
     return assignment();
@@ -54,12 +92,16 @@ public class Parser {
     if (match(Print)) return printStatement();
     if (match(While)) return whileStatement();
     if (match(For)) return forStatement(); 
-    if (match(LeftBrace)) return new Stmt.Block(block());
+    if (match(LeftBrace)) {
+      int line = previousLine();
+      return at(line, new Stmt.Block(block()));
+    }
 
     return expressionStatement();
   }
 
   private Stmt ifStatement() {
+    int line = previousLine();
     consume(LeftParen, "Expect '(' after 'if'.");
     Expr condition = expression();
     consume(RightParen, "Expect ')' after if condition.");
@@ -69,19 +111,22 @@ public class Parser {
     if (match(Else)) {
       elseBranch = statement();
     }
-    return new Stmt.If(condition, thenBranch, elseBranch);
+    return at(line, new Stmt.If(condition, thenBranch, elseBranch));
   }
   
   private Stmt whileStatement() {
+    int line = previousLine();
     consume(LeftParen, "Expext '(' after 'while'.");
     Expr condition = expression();
     consume(RightParen, "Expect ')' after condition.");
 
     Stmt body = statement();
-    return new Stmt.While(condition, body);
+    return at(line, new Stmt.While(condition, body));
   }
 
+  // desugars to a while loop; the statements it adds are on the line of the 'for'
   private Stmt forStatement() {
+    int line = previousLine();
     consume(LeftParen, "Expect '(' after 'for'.");
     
     Stmt initializer;
@@ -100,6 +145,7 @@ public class Parser {
     consume(Semicolon, "Expect ';' after loop condition.");
 
     Expr increment  = null;
+    int incrementLine = peekLine();
     if (!check(RightParen)) {
       increment = expression();
     }
@@ -108,31 +154,34 @@ public class Parser {
     Stmt body = statement();
 
     if (increment != null) {
-      body = new Stmt.Block(
+      body = at(line, new Stmt.Block(
         Arrays.asList(
           body,
-          new Stmt.Expression(increment))
-        );
+          at(incrementLine, new Stmt.Expression(increment)))
+        ));
     }
 
     if (condition == null) condition = new Expr.Literal(true);
-    body = new Stmt.While(condition, body);
+    body = at(line, new Stmt.While(condition, body));
 
     if (initializer != null) {
-      body = new Stmt.Block(Arrays.asList(initializer, body));
+      body = at(line, new Stmt.Block(Arrays.asList(initializer, body)));
     }
     
     return body;
   }
 
   private Stmt printStatement() {
+    int line = previousLine();
     Expr value = expression();
     consume(Semicolon, "Expect ';' after value.");
-    return new Stmt.Print(value);
+    return at(line, new Stmt.Print(value));
   }
 
   private Stmt varDeclaration() {
-    Token name = consume(TokenType.Identifier, "Expect variable name");
+    int line = previousLine();
+    consume(TokenType.Identifier, "Expect variable name");
+    Token name = previous();
 
     Expr initializer = null;
     if(match(Equal)) {
@@ -140,13 +189,19 @@ public class Parser {
     }
 
     consume(Semicolon, "Expect ';' after variable declaration");
-    return new Stmt.Var(name, initializer);
+    return at(line, new Stmt.Var(name, initializer));
   }
 
   private Stmt expressionStatement() {
+    int line = peekLine();
     Expr expr = expression();
     consume(Semicolon, "Expect ';' after expression.");
-    return new Stmt.Expression(expr);
+    return at(line, new Stmt.Expression(expr));
+  }
+
+  private static Stmt at(int line, Stmt stmt) {
+    stmt.line = line;
+    return stmt;
   }
 
   private List<Stmt> block() {
@@ -161,10 +216,11 @@ public class Parser {
   }
 
   private Expr assignment() {
-    Expr expr = or();
+    Expr expr = parsePrecedence(Precedence.Or);
 
     if(match(Equal)) {
-      Token equals = previous();
+      // the '=' token is only needed for the error below
+      Token equals = expr instanceof Expr.Variable ? null : previous();
       Expr value = assignment();
 
       if (expr instanceof Expr.Variable) {
@@ -178,121 +234,153 @@ public class Parser {
     return expr;
   }
 
-  private Expr or() {
-    Expr expr = and();
+  // Pratt parser for everything below assignment. Parses a prefix expression and
+  // then keeps folding in infix operators that bind at least as tightly as
+  // 'precedence'.
+  private Expr parsePrecedence(Precedence precedence) {
+    PrefixRule prefix = prefixRules[peekType().ordinal()];
+    if (prefix == null) throw error(peek(), "Expect expression.");
+    advance();
+    Expr expr = prefix.parse(this);
+
+    // 'and' and 'or' do not repeat at the same level (a or b or c is an error), so
+    // after one of them only operators of lower precedence may follow.
+    int ceiling = Precedence.Primary.ordinal();
+    while (true) {
+      int infix = infixPrecedence[peekType().ordinal()].ordinal();
+      if (infix < precedence.ordinal() || infix > ceiling || infix == 0) break;
 
-    if(match(Or)) {
-      Token operator = previous();
-      Expr right = and();
-      expr = new Expr.Logical(expr, operator, right);
+      advance();
+      expr = infixRules[previousType().ordinal()].parse(this, expr);
+      if (infix == Precedence.Or.ordinal() || infix == Precedence.And.ordinal()) {
+        ceiling = infix - 1;
+      }
     }
     return expr;
   }
 
-  private Expr and() {
-    Expr expr = equality();
+  private enum Precedence {
+    None, Or, And, Equality, Comparison, Term, Factor, Unary, Primary;
 
-    if(match(And)) {
-      Token operator = previous();
-      Expr right = equality();
-      expr = new Expr.Logical(expr, operator, right);
+    private static final Precedence[] all = values();
+
+    Precedence next() {
+      return all[ordinal() + 1];
     }
-    return expr;
   }
 
-  private Expr equality() {
-    Expr expr = comparison();
-    
-    while (match(BangEqual, EqualEqual))  {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-    return expr;
+  private interface PrefixRule {
+    Expr parse(Parser parser);
   }
 
-  private Expr comparison() {
-    Expr expr = term();
+  private interface InfixRule {
+    Expr parse(Parser parser, Expr left);
+  }
 
-    while(match(Greater, GreaterEqual, Less, LessEqual)) {
-      Token operator = previous();
-      Expr right = term();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-    return expr;
+  private static final PrefixRule[] prefixRules = new PrefixRule[TokenType.values().length];
+  private static final InfixRule[] infixRules = new InfixRule[TokenType.values().length];
+  private static final Precedence[] infixPrecedence = new Precedence[TokenType.values().length];
+
+  static {
+    Arrays.fill(infixPrecedence, Precedence.None);
+
+    prefix(LeftParen, Parser::grouping);
+    prefix(Bang, Parser::unary);
+    prefix(Minus, Parser::unary);
+    prefix(False, Parser::literal);
+    prefix(True, Parser::literal);
+    prefix(Nil, Parser::literal);
+    prefix(Number, Parser::literal);
+    prefix(String, Parser::literal);
+    prefix(Identifier, Parser::variable);
+
+    infix(Or, Parser::logical, Precedence.Or);
+    infix(And, Parser::logical, Precedence.And);
+    infix(BangEqual, Parser::binary, Precedence.Equality);
+    infix(EqualEqual, Parser::binary, Precedence.Equality);
+    infix(Greater, Parser::binary, Precedence.Comparison);
+    infix(GreaterEqual, Parser::binary, Precedence.Comparison);
+    infix(Less, Parser::binary, Precedence.Comparison);
+    infix(LessEqual, Parser::binary, Precedence.Comparison);
+    infix(Plus, Parser::binary, Precedence.Term);
+    infix(Minus, Parser::binary, Precedence.Term);
+    infix(Slash, Parser::binary, Precedence.Factor);
+    infix(Star, Parser::binary, Precedence.Factor);
   }
 
-  private Expr term() {
-    Expr expr = factor();
+  private static void prefix(TokenType type, PrefixRule rule) {
+    prefixRules[type.ordinal()] = rule;
+  }
 
-    while(match(Plus, Minus)) {
-      Token operator = previous();
-      Expr right = factor();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-    return expr;
+  private static void infix(TokenType type, InfixRule rule, Precedence precedence) {
+    infixRules[type.ordinal()] = rule;
+    infixPrecedence[type.ordinal()] = precedence;
   }
 
-  private Expr factor() {
-    Expr expr = unary();
+  // Prefix and infix rules run with their operator token already consumed.
 
-    while(match(Slash, Star)) {
-      Token operator = previous();
-      Expr right = unary();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-    return expr;
+  private Expr grouping() {
+    Expr expr = expression();
+    consume(RightParen, "Expect ')' after expression.");
+    return new Expr.Grouping(expr);
   }
 
   private Expr unary() {
-    if(match(Bang, Minus)) {
-      Token operator = previous();
-      Expr right = unary();
-      return new Expr.Unary(operator, right);
-    }
-    return primary();
+    Token operator = previous();
+    Expr right = parsePrecedence(Precedence.Unary);
+    return new Expr.Unary(operator, right);
   }
 
-  private Expr primary() {
-    if(match(False)) return new Expr.Literal(false);
-    if(match(True)) return new Expr.Literal(true);
-    if(match(Nil)) return new Expr.Literal(null);
-
-    if(match(Number, String)) {
-      return new Expr.Literal(previous().literal);
+  private Expr literal() {
+    switch (previousType()) {
+      case False: return new Expr.Literal(false);
+      case True: return new Expr.Literal(true);
+      case Nil: return new Expr.Literal(null);
+      default: return new Expr.Literal(previousLiteral());
     }
+  }
 
-    if(match(Identifier)) {
-      return new Expr.Variable(previous());
-    }
+  private Expr variable() {
+    return new Expr.Variable(previous());
+  }
 
-    if(match(LeftParen)) {
-      Expr expr = expression();
-      consume(RightParen, "Expect ')' after expression.");
-      return new Expr.Grouping(expr);
-    }
+  // left associative: the right operand only takes operators that bind tighter
+  private Expr binary(Expr left) {
+    Token operator = previous();
+    Expr right = parsePrecedence(infixPrecedence[operator.type.ordinal()].next());
+    return new Expr.Binary(left, operator, right);
+  }
 
-    throw error(peek(), "Expect expression.");
+  private Expr logical(Expr left) {
+    Token operator = previous();
+    Expr right = parsePrecedence(infixPrecedence[operator.type.ordinal()].next());
+    return new Expr.Logical(left, operator, right);
   }
 
-  private boolean match(TokenType... types) {
-    for (TokenType type : types) {
-      if(check(type)) {
-        advance();
-        return true;
-      }
+  private boolean match(TokenType type) {
+    if(check(type)) {
+      advance();
+      return true;
     }
     return false;
   }
 
-  private Token consume(TokenType type, String message) {
-    if(check(type)) return advance();
+  private void consume(TokenType type, String message) {
+    if(check(type)) {
+      advance();
+      return;
+    }
 
     throw error(peek(), message);
   }
 
   private ParseError error(Token token, String message) {
-    Main.error(token, message);
+    hadError = true;
+    if (token.type == Eof) {
+      errors.syntaxError(token.line, " at end", message);
+    } else {
+      errors.syntaxError(token.line, " at '" + token.lexeme + "'", message);
+    }
     return new ParseError();
   }
 
@@ -301,9 +389,9 @@ public class Parser {
     advance();
 
     while (!isAtEnd()) {
-      if (previous().type == Semicolon) return;
+      if (previousType() == Semicolon) return;
 
-      switch (peek().type) {
+      switch (peekType()) {
         case Class:
         case Fun:
         case Var:
@@ -321,23 +409,51 @@ public class Parser {
 
   private boolean check(TokenType type) {
     if (isAtEnd()) return false;
-    return peek().type == type;
+    return peekType() == type;
   }
 
-  private Token advance() {
-    if (!isAtEnd()) current++;
-    return previous();
+  private void advance() {
+    if (isAtEnd()) return;
+
+    if (buffer != null) {
+      index++;
+    } else {
+      previous = current;
+      current = tokens.next();
+    }
   }
 
   private boolean isAtEnd() {
-    return peek().type == Eof;
+    return peekType() == Eof;
+  }
+
+  private TokenType peekType() {
+    return buffer != null ? buffer.type(index) : current.type;
+  }
+
+  private TokenType previousType() {
+    return buffer != null ? buffer.type(index - 1) : previous.type;
   }
 
+  // peek() and previous() create Token objects when reading from a compact
+  // buffer, so they are only used where an AST node or an error needs the token
   private Token peek() {
-    return tokens.get(current);
+    return buffer != null ? buffer.token(index) : current;
   }
 
   private Token previous() {
-    return tokens.get(current-1);
+    return buffer != null ? buffer.token(index - 1) : previous;
+  }
+
+  private int peekLine() {
+    return buffer != null ? buffer.line(index) : current.line;
+  }
+
+  private int previousLine() {
+    return buffer != null ? buffer.line(index - 1) : previous.line;
+  }
+
+  private Object previousLiteral() {
+    return buffer != null ? buffer.literal(index - 1) : previous.literal;
   }
 }
@@ -0,0 +1,33 @@
+package com.JLox;
+
+import java.util.List;
+
+import com.JLox.parser.Stmt;
+import com.JLox.vm.Chunk;
+
+// A compiled script: resolved statements for the tree-walking interpreter, or a
+// chunk for the VM. Nothing in it depends on the Context that runs it, so one
+// Program can be run by many Contexts on many threads at once. It is built
+// before the constructor runs and only reached through final fields, which makes
+// handing a Program to another thread safe without further locking.
+//
+// A Program is not immutable, though: the syntax tree carries execution caches
+// that every interpreter running it updates without synchronization. These are
+// the operand type feedback in Binary/Unary 'state' and Binary 'operands', the
+// fused form in Assign 'fused', and the back-edge count and compiled loop in
+// While 'backedges' and 'compiled'. The races are benign. Each field is written
+// with a single plain store, and a thread that reads a stale value or another
+// thread's value only takes a slower generic path or recompiles the loop.
+public final class Program {
+  final List<Stmt> statements;
+  final Chunk chunk;
+
+  Program(List<Stmt> statements, Chunk chunk) {
+    this.statements = statements;
+    this.chunk = chunk;
+  }
+
+  boolean isCompiledForVm() {
+    return chunk != null;
+  }
+}
@@ -0,0 +1,199 @@
+package com.JLox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.JLox.parser.Expr;
+import com.JLox.parser.Stmt;
+import com.JLox.scanner.Symbol;
+import com.JLox.scanner.TokenType;
+
+// Static pass between the parser and the interpreter. Every local variable gets
+// a (depth, slot) pair so the interpreter can index block environments directly.
+// Names that are not declared in any enclosing block are left unresolved
+// (depth -1) and looked up by symbol in the globals at runtime.
+//
+// Only an outermost block gets an environment (a frame); the blocks nested in it
+// keep their own names but take their slots from that frame, so they cost nothing
+// at runtime. Nothing can capture a variable, and every one is redefined by its
+// declaration before it can be read, so sharing slots is not observable.
+// Block.slots is the frame size, 0 for blocks that need no environment.
+//
+// It also marks a few idioms the interpreter runs as one step: the operands of a
+// Binary that are variables or literals, which it then reads without a visitor
+// call (i < n, a == "x"), and assignments that add to the variable they assign
+// (x = x + e, and i = i + 1 when the addend is a number literal).
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  // Binary.operands holds the left operand's kind in bits 2-3, the right's in 0-1
+  static final int OtherOperand = 0;
+  static final int LocalOperand = 1;
+  static final int GlobalOperand = 2;
+  static final int LiteralOperand = 3;
+
+  // Assign.fused
+  static final int AddToSelf = 1;
+  static final int IncrementSelf = 2;
+
+  private final List<Map<Symbol, Integer>> scopes = new ArrayList<>();
+  // slots used so far in the current frame
+  private int frameSize = 0;
+
+  void resolve(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      resolve(statement);
+    }
+  }
+
+  private void resolve(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void resolve(Expr expr) {
+    expr.accept(this);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    boolean frame = scopes.isEmpty();
+    if (frame) frameSize = 0;
+    scopes.add(new HashMap<>());
+    resolve(stmt.statements);
+    scopes.remove(scopes.size() - 1);
+    stmt.slots = frame ? frameSize : 0;
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    resolve(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    resolve(stmt.condition);
+    resolve(stmt.thenBranch);
+    if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    resolve(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    // The initializer is resolved first so 'var a = a;' still reads the outer 'a'.
+    if (stmt.initializer != null) {
+      resolve(stmt.initializer);
+    }
+    if (scopes.isEmpty()) return null;
+
+    Map<Symbol, Integer> scope = scopes.get(scopes.size() - 1);
+    Symbol name = Symbol.of(stmt.name);
+    Integer slot = scope.get(name);
+    if (slot == null) {
+      // redeclaring a name in the same block reuses its slot
+      slot = frameSize++;
+      scope.put(name, slot);
+    }
+    stmt.slot = slot;
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    resolve(stmt.condition);
+    resolve(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    resolve(expr.value);
+    Symbol name = Symbol.of(expr.name);
+    int scope = scopeOf(name);
+    if (scope >= 0) {
+      expr.depth = 0;
+      expr.slot = scopes.get(scope).get(name);
+    }
+    expr.fused = fusion(expr);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    resolve(expr.left);
+    resolve(expr.right);
+    expr.operands = kind(expr.left) << 2 | kind(expr.right);
+    return null;
+  }
+
+  private static int kind(Expr operand) {
+    if (operand instanceof Expr.Literal) return LiteralOperand;
+    if (!(operand instanceof Expr.Variable)) return OtherOperand;
+    return ((Expr.Variable)operand).depth >= 0 ? LocalOperand : GlobalOperand;
+  }
+
+  // x = x + e reads the variable it assigns as the left operand of the sum
+  private static int fusion(Expr.Assign expr) {
+    if (!(expr.value instanceof Expr.Binary)) return 0;
+    Expr.Binary sum = (Expr.Binary)expr.value;
+    if (sum.operator.type != TokenType.Plus || !(sum.left instanceof Expr.Variable)) return 0;
+
+    Expr.Variable target = (Expr.Variable)sum.left;
+    if (target.depth != expr.depth || target.slot != expr.slot) return 0;
+    if (expr.depth < 0 && Symbol.of(target.name) != Symbol.of(expr.name)) return 0;
+
+    boolean increment = sum.right instanceof Expr.Literal && ((Expr.Literal)sum.right).value instanceof Double;
+    return increment ? IncrementSelf : AddToSelf;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    resolve(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    resolve(expr.left);
+    resolve(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    resolve(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    Symbol name = Symbol.of(expr.name);
+    int scope = scopeOf(name);
+    if (scope >= 0) {
+      expr.depth = 0;
+      expr.slot = scopes.get(scope).get(name);
+    }
+    return null;
+  }
+
+  // index of the innermost scope declaring name, or -1 for a global; every scope
+  // belongs to the current frame, so locals are always at depth 0
+  private int scopeOf(Symbol name) {
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      if (scopes.get(i).containsKey(name)) return i;
+    }
+    return -1;
+  }
+}
@@ -1,57 +1,108 @@
 package com.JLox;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.Arrays;
 
+import com.JLox.metrics.Events;
+import com.JLox.scanner.NumberLiteral;
+import com.JLox.scanner.Symbol;
 import com.JLox.scanner.Token;
+import com.JLox.scanner.TokenBuffer;
+import com.JLox.scanner.TokenSource;
 import com.JLox.scanner.TokenType;
 import static com.JLox.scanner.TokenType.*;
 
-class Scanner {
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+class Scanner implements TokenSource {
+  // Characters are read from buf[0, limit). For a String source that is the whole
+  // text; for a Reader it is a window that is refilled on demand and only keeps
+  // the lexeme currently being scanned, so memory stays bounded.
+  private char[] buf;
+  private int limit;
+  private Reader reader;
 
   private int start = 0;
   private int current = 0;
   private int line = 1;
+  // set by addToken() while scanning the next token
+  private Token token;
+  // when scanning into a compact buffer, addToken() records offsets here instead
+  private TokenBuffer compact;
+  private final ErrorReporter errors;
+
+  Scanner(String source, ErrorReporter errors) {
+    this.buf = source.toCharArray();
+    this.limit = buf.length;
+    this.reader = null;
+    this.errors = errors;
+  }
 
-  private static final Map<String, TokenType> keywords;
-
-  static {
-    keywords = new HashMap<>();
-    keywords.put("and", And);
-    keywords.put("class", Class);
-    keywords.put("else", Else);
-    keywords.put("false", False);
-    keywords.put("for", For);
-    keywords.put("fun", Fun);
-    keywords.put("if", If);
-    keywords.put("nil", Nil);
-    keywords.put("or", Or);
-    keywords.put("print", Print);
-    keywords.put("return", Return);
-    keywords.put("super", Super);
-    keywords.put("this", This);
-    keywords.put("true", True);
-    keywords.put("var", Var);
-    keywords.put("while", While);
+  // Scans source[start, end) only, numbering lines from 'line'. Compact buffers
+  // keep offsets into the whole array.
+  Scanner(char[] source, int start, int end, int line, ErrorReporter errors) {
+    this.buf = source;
+    this.limit = end;
+    this.reader = null;
+    this.start = start;
+    this.current = start;
+    this.line = line;
+    this.errors = errors;
   }
 
-  Scanner(String source) {
-    this.source = source;
+  Scanner(Reader reader, ErrorReporter errors) {
+    this.buf = new char[8192];
+    this.limit = 0;
+    this.reader = reader;
+    this.errors = errors;
   }
 
   List<Token> scanTokens() {
+    Object event = Events.enabled() ? Events.beginScan() : null;
+
+    List<Token> tokens = new ArrayList<>();
+    Token token;
+    do {
+      token = next();
+      tokens.add(token);
+    } while (token.type != Eof);
+
+    if (event != null) Events.commitScan(event, limit, tokens.size());
+    return tokens;
+  }
+
+  // Scans the whole source into a compact buffer, without a Token object or a
+  // lexeme string per token. Only for String sources: the buffer keeps offsets
+  // into the source characters.
+  TokenBuffer scanCompact() {
+    Object event = Events.enabled() ? Events.beginScan() : null;
+
+    int first = current;
+    compact = new TokenBuffer(buf, (limit - first) / 4);
     while (!isAtEnd()) {
+      start = current;
+      scanToken();
+    }
+    compact.add(Eof, current, 0, line);
+
+    if (event != null) Events.commitScan(event, limit - first, compact.size());
+    return compact;
+  }
+
+  // Scans just far enough to produce the next token. Returns Eof at the end of the input.
+  @Override
+  public Token next() {
+    token = null;
+    while (token == null && !isAtEnd()) {
       // We are at the beginning of the next lexeme
       start = current;
       scanToken();
     }
-    tokens.add(new Token(Eof, "", null, line));
-    return tokens;
+    if (token == null) return new Token(Eof, "", null, line);
+    return token;
   }
 
   private void scanToken() {
@@ -124,7 +175,7 @@ class Scanner {
         } else if (isAlpha(c)) {
           identifier();
         } else {
-          Main.error(line, "Unexpected character.");
+          errors.syntaxError(line, "", "Unexpected character.");
         }
         break;
     }
@@ -134,11 +185,19 @@ class Scanner {
     while (isAlphaNumeric(peek()))
       advance();
 
-    String text = source.substring(start, current);
-    TokenType type = keywords.get(text);
-    if (type == null)
-      type = Identifier;
-    addToken(type);
+    // keywords are in the symbol table too, so one lookup on the characters
+    // tells them apart and interns the name
+    Symbol symbol = Symbol.intern(buf, start, current - start);
+    if (symbol.type() != Identifier) {
+      addToken(symbol.type());
+      return;
+    }
+
+    if (compact != null) {
+      compact.add(Identifier, start, current - start, line, symbol);
+    } else {
+      token = new Token(symbol, line);
+    }
   }
 
   private void number() {
@@ -154,7 +213,7 @@ class Scanner {
         advance();
     }
 
-    addToken(Number, Double.parseDouble(source.substring(start, current)));
+    addToken(Number);
 
   }
 
@@ -166,21 +225,20 @@ class Scanner {
     }
 
     if (isAtEnd()) {
-      Main.error(line, "Unterminated string.");
+      errors.syntaxError(line, "", "Unterminated string.");
       return;
     }
 
     // closing "
     advance();
 
-    String value = source.substring(start + 1, current - 1);
-    addToken(String, value);
+    addToken(String);
   }
 
   private boolean match(char expected) {
     if (isAtEnd())
       return false;
-    if (source.charAt(current) != expected)
+    if (buf[current] != expected)
       return false;
 
     current++;
@@ -192,14 +250,16 @@ class Scanner {
   private char peek() {
     if (isAtEnd())
       return '\0';
-    return source.charAt(current);
+    return buf[current];
   }
 
   // just check next character dont consume
   private char peekNext() {
-    if (current + 1 > source.length())
-      return '\0';
-    return source.charAt(current + 1);
+    while (current + 1 >= limit) {
+      if (!fill())
+        return '\0';
+    }
+    return buf[current + 1];
   }
 
   private boolean isAlpha(char c) {
@@ -215,22 +275,64 @@ class Scanner {
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return current >= limit && !fill();
   }
 
   private char advance() {
+    if (current >= limit)
+      fill();
     current++;
-    return source.charAt(current - 1);
+    return buf[current - 1];
   }
 
-  // adds the token provided to tokens list
-  private void addToken(TokenType type) {
-    addToken(type, null);
+  // Reads more input into the window, keeping the lexeme that starts at 'start'.
+  // Returns false at the end of the input.
+  private boolean fill() {
+    if (reader == null)
+      return false;
+
+    if (start > 0) {
+      System.arraycopy(buf, start, buf, 0, limit - start);
+      limit -= start;
+      current -= start;
+      start = 0;
+    }
+    if (limit == buf.length) {
+      buf = Arrays.copyOf(buf, buf.length * 2);
+    }
+
+    try {
+      int read = reader.read(buf, limit, buf.length - limit);
+      if (read <= 0) {
+        reader.close();
+        reader = null;
+        return false;
+      }
+      limit += read;
+      return true;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private String lexeme() {
+    return new String(buf, start, current - start);
   }
 
-  // adds token with its literal to the list
-  private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+  // the token that next() returns, or the next entry of the compact buffer
+  private void addToken(TokenType type) {
+    if (compact != null) {
+      compact.add(type, start, current - start, line);
+      return;
+    }
+
+    String text = lexeme();
+    Object literal = null;
+    if (type == Number) {
+      literal = NumberLiteral.parse(buf, start, current - start);
+    } else if (type == String) {
+      literal = new String(buf, start + 1, current - start - 2);
+    }
+    token = new Token(type, text, literal, line);
   }
 }
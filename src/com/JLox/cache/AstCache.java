@@ -0,0 +1,217 @@
+package com.JLox.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.JLox.optimizer.Optimizer;
+import com.JLox.parser.Stmt;
+
+// Parsed programs stored on disk, keyed by a hash of the source text, so running
+// an unchanged script skips the scanner and parser. An entry is a header (magic,
+// format version, key, payload length and CRC) followed by the AstWriter payload,
+// and is memory-mapped when read back.
+//
+// Entries are written to a temporary file and renamed into place, so concurrent
+// runs only ever see complete files. Anything that fails to validate is treated as
+// a miss and removed. A hit touches the file's modification time; after each store
+// the least recently used entries are deleted until the directory is under its
+// size limit again.
+public class AstCache {
+  // Bump whenever the Expr/Stmt classes or the encoding change, or the parser
+  // builds a different tree from the same source. Optimizer changes bump
+  // Optimizer.Version, which is part of the key as well.
+  private static final int FormatVersion = 2;
+  private static final int Magic = 0x4a4c5843; // "JLXC"
+  private static final int HeaderSize = 4 + 4 + 32 + 4 + 8;
+  private static final String Suffix = ".jlc";
+  // temporary files a crashed writer left behind are removed after this long
+  private static final long StaleTempMillis = TimeUnit.MINUTES.toMillis(10);
+
+  private final Path directory;
+  private final long maxBytes;
+
+  public AstCache(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  // The cached program for this source, or null. 'variant' separates programs
+  // built differently from the same source, e.g. with and without the optimizer.
+  public List<Stmt> load(byte[] source, String variant) {
+    byte[] key = key(source, variant);
+    Path path = entry(key);
+
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HeaderSize || size > Integer.MAX_VALUE) {
+        discard(path);
+        return null;
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      return null;
+    }
+
+    List<Stmt> statements;
+    try {
+      ByteBuffer payload = validate(buffer, key);
+      statements = payload == null ? null : new AstReader(payload).read();
+    } catch (RuntimeException e) {
+      statements = null;
+    }
+    if (statements == null) {
+      discard(path);
+      return null;
+    }
+
+    try {
+      Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // evicted meanwhile; the program was read already
+    }
+    return statements;
+  }
+
+  public void store(byte[] source, String variant, List<Stmt> statements) {
+    byte[] key = key(source, variant);
+    byte[] payload = new AstWriter().write(statements);
+
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    ByteBuffer header = ByteBuffer.allocate(HeaderSize);
+    header.putInt(Magic);
+    header.putInt(FormatVersion);
+    header.put(key);
+    header.putInt(payload.length);
+    header.putLong(crc.getValue());
+    header.flip();
+
+    Path temp = null;
+    try {
+      Files.createDirectories(directory);
+      temp = Files.createTempFile(directory, "entry", ".tmp");
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        ByteBuffer body = ByteBuffer.wrap(payload);
+        while (header.hasRemaining() || body.hasRemaining()) {
+          channel.write(new ByteBuffer[] { header, body });
+        }
+      }
+      try {
+        Files.move(temp, entry(key), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, entry(key), StandardCopyOption.REPLACE_EXISTING);
+      }
+      temp = null;
+      evict();
+    } catch (IOException e) {
+      // the cache is only an optimization, running the script must not fail
+    } finally {
+      if (temp != null) discard(temp);
+    }
+  }
+
+  private ByteBuffer validate(ByteBuffer buffer, byte[] key) {
+    if (buffer.getInt() != Magic || buffer.getInt() != FormatVersion) return null;
+    byte[] stored = new byte[key.length];
+    buffer.get(stored);
+    if (!MessageDigest.isEqual(stored, key)) return null;
+
+    int length = buffer.getInt();
+    long checksum = buffer.getLong();
+    if (length != buffer.remaining()) return null;
+
+    ByteBuffer payload = buffer.slice();
+    CRC32 crc = new CRC32();
+    crc.update(payload.duplicate());
+    if (crc.getValue() != checksum) return null;
+    return payload;
+  }
+
+  private void evict() throws IOException {
+    List<Path> entries = new ArrayList<>();
+    List<BasicFileAttributes> attributes = new ArrayList<>();
+    long total = 0;
+    long now = System.currentTimeMillis();
+
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        BasicFileAttributes attrs;
+        try {
+          attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+          continue;
+        }
+        if (name.endsWith(".tmp")) {
+          if (now - attrs.lastModifiedTime().toMillis() > StaleTempMillis) discard(file);
+        } else if (name.endsWith(Suffix)) {
+          entries.add(file);
+          attributes.add(attrs);
+          total += attrs.size();
+        }
+      }
+    }
+    if (total <= maxBytes) return;
+
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < entries.size(); i++) order.add(i);
+    order.sort(Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+    for (int i : order) {
+      if (total <= maxBytes) break;
+      discard(entries.get(i));
+      total -= attributes.get(i).size();
+    }
+  }
+
+  private Path entry(byte[] key) {
+    StringBuilder name = new StringBuilder(key.length * 2 + Suffix.length());
+    for (byte b : key) {
+      name.append(Character.forDigit((b >> 4) & 0xf, 16));
+      name.append(Character.forDigit(b & 0xf, 16));
+    }
+    return directory.resolve(name.append(Suffix).toString());
+  }
+
+  private static byte[] key(byte[] source, String variant) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(ByteBuffer.allocate(8).putInt(FormatVersion).putInt(Optimizer.Version).array());
+      digest.update(variant.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte)0);
+      digest.update(source);
+      return digest.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void discard(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      // another run may have removed or replaced it
+    }
+  }
+}
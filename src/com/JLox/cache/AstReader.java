@@ -0,0 +1,178 @@
+package com.JLox.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.JLox.parser.Expr;
+import com.JLox.parser.Stmt;
+import com.JLox.scanner.Symbol;
+import com.JLox.scanner.Token;
+import com.JLox.scanner.TokenType;
+import static com.JLox.cache.AstWriter.*;
+
+// Rebuilds the program AstWriter encoded. Malformed input ends in an
+// IllegalArgumentException or a BufferUnderflowException.
+class AstReader {
+  private static final TokenType[] Types = TokenType.values();
+
+  private final ByteBuffer in;
+  private String[] strings;
+  private Symbol[] symbols;
+  private int line = 0;
+
+  AstReader(ByteBuffer in) {
+    this.in = in;
+  }
+
+  List<Stmt> read() {
+    strings = new String[varint()];
+    symbols = new Symbol[strings.length];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = string();
+    }
+
+    int count = varint();
+    List<Stmt> statements = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      statements.add(statement());
+    }
+    if (in.hasRemaining()) throw new IllegalArgumentException("trailing bytes");
+    return statements;
+  }
+
+  private Stmt statement() {
+    int tag = in.get();
+    if (tag == NoStmt) return null;
+    int line = line();
+    Stmt stmt = statement(tag);
+    stmt.line = line;
+    return stmt;
+  }
+
+  private Stmt statement(int tag) {
+    switch (tag) {
+      case Block: {
+        int count = varint();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          statements.add(statement());
+        }
+        return new Stmt.Block(statements);
+      }
+      case Expression:
+        return new Stmt.Expression(expression());
+      case If: {
+        Expr condition = expression();
+        Stmt thenBranch = statement();
+        return new Stmt.If(condition, thenBranch, statement());
+      }
+      case Print:
+        return new Stmt.Print(expression());
+      case Var: {
+        Token name = token();
+        return new Stmt.Var(name, expression());
+      }
+      case While: {
+        Expr condition = expression();
+        return new Stmt.While(condition, statement());
+      }
+      default:
+        throw new IllegalArgumentException("bad statement tag " + tag);
+    }
+  }
+
+  private Expr expression() {
+    int tag = in.get();
+    switch (tag) {
+      case NoExpr:
+        return null;
+      case Assign: {
+        Token name = token();
+        return new Expr.Assign(name, expression());
+      }
+      case Binary: {
+        Expr left = expression();
+        Token operator = token();
+        return new Expr.Binary(left, operator, expression());
+      }
+      case Grouping:
+        return new Expr.Grouping(expression());
+      case Literal:
+        return new Expr.Literal(literal());
+      case Logical: {
+        Expr left = expression();
+        Token operator = token();
+        return new Expr.Logical(left, operator, expression());
+      }
+      case Unary: {
+        Token operator = token();
+        return new Expr.Unary(operator, expression());
+      }
+      case Variable:
+        return new Expr.Variable(token());
+      default:
+        throw new IllegalArgumentException("bad expression tag " + tag);
+    }
+  }
+
+  private Object literal() {
+    int tag = in.get();
+    switch (tag) {
+      case NilValue:     return null;
+      case TrueValue:    return true;
+      case FalseValue:   return false;
+      case NumberValue:  return Double.longBitsToDouble(in.getLong());
+      case StringValue:  return string();
+      case IntegerValue: return (double)varint();
+      default:
+        throw new IllegalArgumentException("bad literal tag " + tag);
+    }
+  }
+
+  private Token token() {
+    TokenType type = Types[in.get() & 0xff];
+    int index = varint();
+    int line = line();
+    if (type == TokenType.Identifier) {
+      if (symbols[index] == null) symbols[index] = Symbol.intern(strings[index]);
+      return new Token(symbols[index], line);
+    }
+    return new Token(type, strings[index], null, line);
+  }
+
+  private int line() {
+    int delta = varint();
+    line += (delta >>> 1) ^ -(delta & 1);
+    return line;
+  }
+
+  private String string() {
+    int length = varint();
+    if (length > in.remaining()) throw new IllegalArgumentException("string past the end");
+    String value;
+    if (in.hasArray()) {
+      value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+      in.position(in.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      value = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return value;
+  }
+
+  private int varint() {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.get();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) throw new IllegalArgumentException("bad length");
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("varint too long");
+  }
+}
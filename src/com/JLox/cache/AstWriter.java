@@ -0,0 +1,272 @@
+package com.JLox.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.JLox.parser.Expr;
+import com.JLox.parser.Stmt;
+import com.JLox.scanner.Token;
+
+// Encodes a program as a string table followed by the nodes in prefix order, one
+// tag byte per node. Integers are unsigned varints; token lexemes are indexes into
+// the string table so every name and operator is stored once, token and statement
+// lines are stored as the (zigzag encoded) difference to the previous line
+// written, and whole numbers that fit a varint are stored as one.
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  static final int NoStmt = 0;
+  static final int Block = 1;
+  static final int Expression = 2;
+  static final int If = 3;
+  static final int Print = 4;
+  static final int Var = 5;
+  static final int While = 6;
+
+  static final int Assign = 10;
+  static final int Binary = 11;
+  static final int Grouping = 12;
+  static final int Literal = 13;
+  static final int Logical = 14;
+  static final int Unary = 15;
+  static final int Variable = 16;
+
+  static final int NoExpr = 17;
+
+  static final int NilValue = 0;
+  static final int TrueValue = 1;
+  static final int FalseValue = 2;
+  static final int NumberValue = 3;
+  static final int StringValue = 4;
+  static final int IntegerValue = 5;
+
+  private final Bytes nodes = new Bytes();
+  private final List<String> strings = new ArrayList<>();
+  private final Map<String, Integer> stringIndex = new HashMap<>();
+  private int line = 0;
+
+  byte[] write(List<Stmt> statements) {
+    nodes.varint(statements.size());
+    for (Stmt statement : statements) {
+      statement.accept(this);
+    }
+
+    Bytes out = new Bytes();
+    out.varint(strings.size());
+    for (String string : strings) {
+      out.string(string);
+    }
+    out.write(nodes);
+    return out.toByteArray();
+  }
+
+  private void write(Stmt stmt) {
+    if (stmt == null) {
+      nodes.write(NoStmt);
+    } else {
+      stmt.accept(this);
+    }
+  }
+
+  private void write(Expr expr) {
+    if (expr == null) {
+      nodes.write(NoExpr);
+    } else {
+      expr.accept(this);
+    }
+  }
+
+  private void write(Token token) {
+    Integer index = stringIndex.get(token.lexeme);
+    if (index == null) {
+      index = strings.size();
+      strings.add(token.lexeme);
+      stringIndex.put(token.lexeme, index);
+    }
+    nodes.write(token.type.ordinal());
+    nodes.varint(index);
+    line(token.line);
+  }
+
+  private void line(int line) {
+    int delta = line - this.line;
+    nodes.varint((delta << 1) ^ (delta >> 31));
+    this.line = line;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    nodes.write(Block);
+    line(stmt.line);
+    nodes.varint(stmt.statements.size());
+    for (Stmt statement : stmt.statements) {
+      write(statement);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    nodes.write(Expression);
+    line(stmt.line);
+    write(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    nodes.write(If);
+    line(stmt.line);
+    write(stmt.condition);
+    write(stmt.thenBranch);
+    write(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    nodes.write(Print);
+    line(stmt.line);
+    write(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    nodes.write(Var);
+    line(stmt.line);
+    write(stmt.name);
+    write(stmt.initializer);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    nodes.write(While);
+    line(stmt.line);
+    write(stmt.condition);
+    write(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    nodes.write(Assign);
+    write(expr.name);
+    write(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    nodes.write(Binary);
+    write(expr.left);
+    write(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    nodes.write(Grouping);
+    write(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    nodes.write(Literal);
+    Object value = expr.value;
+    if (value == null) {
+      nodes.write(NilValue);
+    } else if (value instanceof Boolean) {
+      nodes.write((boolean)value ? TrueValue : FalseValue);
+    } else if (value instanceof Double) {
+      double number = (double)value;
+      int whole = (int)number;
+      if (whole == number && whole >= 0 && Double.doubleToRawLongBits(number) != Double.doubleToRawLongBits(-0.0)) {
+        nodes.write(IntegerValue);
+        nodes.varint(whole);
+      } else {
+        nodes.write(NumberValue);
+        nodes.int64(Double.doubleToRawLongBits(number));
+      }
+    } else {
+      nodes.write(StringValue);
+      nodes.string((String)value);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    nodes.write(Logical);
+    write(expr.left);
+    write(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    nodes.write(Unary);
+    write(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    nodes.write(Variable);
+    write(expr.name);
+    return null;
+  }
+
+  private static final class Bytes {
+    private byte[] bytes = new byte[1024];
+    private int count = 0;
+
+    void write(int b) {
+      if (count == bytes.length) bytes = Arrays.copyOf(bytes, count * 2);
+      bytes[count++] = (byte)b;
+    }
+
+    void write(Bytes other) {
+      write(other.bytes, 0, other.count);
+    }
+
+    void write(byte[] from, int offset, int length) {
+      if (count + length > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + length));
+      }
+      System.arraycopy(from, offset, bytes, count, length);
+      count += length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, count);
+    }
+
+    void varint(int value) {
+      while ((value & ~0x7f) != 0) {
+        write((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      write(value);
+    }
+
+    void int64(long value) {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        write((int)(value >>> shift));
+      }
+    }
+
+    void string(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      varint(bytes.length);
+      write(bytes, 0, bytes.length);
+    }
+  }
+}
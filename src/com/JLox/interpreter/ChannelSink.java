@@ -0,0 +1,148 @@
+package com.JLox.interpreter;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Encodes printed lines as UTF-8 into one large buffer and writes it to the channel
+// when it is full or when the last write is older than the time threshold, so a
+// print-heavy script does a handful of writes instead of one per line. A sink
+// that flushes periodically also writes output that has waited that long while
+// nothing else is printed, from a timer thread, so all methods take the sink's
+// lock; the interpreter thread is the only other one using it, so it is never
+// contended for long.
+//
+// Like PrintStream, the sink never throws on a failed write (e.g. stdout piped
+// into 'head', which has exited): it remembers the error, drops the output and
+// writes nothing more. checkError() tells whether that happened.
+public final class ChannelSink implements OutputSink {
+  private static final int DefaultCapacity = 64 * 1024;
+  private static final long DefaultFlushNanos = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final byte[] Newline = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+  private static ChannelSink stdout;
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer bytes;
+  private final long flushNanos;
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private long lastWrite = System.nanoTime();
+  private boolean error = false;
+
+  public ChannelSink(WritableByteChannel channel, int capacity, long flushNanos) {
+    this.channel = channel;
+    this.bytes = ByteBuffer.allocate(Math.max(capacity, 64));
+    this.flushNanos = flushNanos;
+  }
+
+  // The process-wide sink for standard output. Whatever is still buffered when the
+  // JVM exits is written by a shutdown hook.
+  public static synchronized ChannelSink stdout() {
+    if (stdout == null) {
+      stdout = new ChannelSink(new FileOutputStream(FileDescriptor.out).getChannel(),
+          DefaultCapacity, DefaultFlushNanos);
+      Runtime.getRuntime().addShutdownHook(new Thread(stdout::flush));
+      stdout.flushPeriodically();
+    }
+    return stdout;
+  }
+
+  // Writes buffered output once it is older than the time threshold even when
+  // no further print comes, e.g. while a script computes between two prints. The
+  // timer thread is a daemon and holds on to the sink, so this is for sinks that
+  // live as long as the process.
+  public void flushPeriodically() {
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "jlox-flush");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer.scheduleWithFixedDelay(this::flushIfStale, flushNanos, flushNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private synchronized void flushIfStale() {
+    if (bytes.position() > 0 && System.nanoTime() - lastWrite > flushNanos) drain();
+  }
+
+  @Override
+  public synchronized void println(String line) {
+    write(line);
+    if (bytes.remaining() < Newline.length) drain();
+    bytes.put(Newline);
+
+    if (System.nanoTime() - lastWrite > flushNanos) drain();
+  }
+
+  @Override
+  public synchronized void println(double value) {
+    if (bytes.remaining() < NumberFormatter.MaxLength + Newline.length) drain();
+    int end = NumberFormatter.format(value, bytes.array(), bytes.position());
+    if (end < 0) {
+      println(Values.stringify(value));
+      return;
+    }
+    bytes.position(end);
+    bytes.put(Newline);
+
+    if (System.nanoTime() - lastWrite > flushNanos) drain();
+  }
+
+  @Override
+  public synchronized void flush() {
+    if (bytes.position() > 0) drain();
+  }
+
+  private void write(String text) {
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      // ASCII goes straight into the buffer, the encoder only sees the rest
+      if (c >= 0x80) {
+        encode(CharBuffer.wrap(text, i, length));
+        return;
+      }
+      if (!bytes.hasRemaining()) drain();
+      bytes.put((byte)c);
+    }
+  }
+
+  private void encode(CharBuffer chars) {
+    encoder.reset();
+    while (encoder.encode(chars, bytes, true).isOverflow()) {
+      drain();
+    }
+    while (encoder.flush(bytes).isOverflow()) {
+      drain();
+    }
+  }
+
+  // true once a write to the channel has failed
+  public synchronized boolean checkError() {
+    return error;
+  }
+
+  private void drain() {
+    bytes.flip();
+    try {
+      while (!error && bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+    } catch (IOException e) {
+      error = true;
+    } finally {
+      bytes.clear();
+      lastWrite = System.nanoTime();
+    }
+  }
+}
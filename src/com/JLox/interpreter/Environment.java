@@ -1,36 +1,55 @@
 package com.JLox.interpreter;
 
-import java.util.HashMap;
-import java.util.Map;
-
+import com.JLox.scanner.Symbol;
 import com.JLox.scanner.Token;
 import com.tool.RuntimeError;
 
 public class Environment {
+  // marks slots whose number is held in 'numbers' instead of as a Double
+  private static final Object Unboxed = new Object();
+
   final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<>();
+  // globals are looked up by symbol, block scopes by the slot the resolver gave them
+  private final GlobalTable values;
+  private final Object[] slots;
+  // allocated on the first unboxed store, most scopes never need it
+  private double[] numbers;
 
   public Environment() {
     enclosing = null;
+    values = new GlobalTable();
+    slots = null;
   }
 
-  public Environment(Environment enclosing) {
+  public Environment(Environment enclosing, int size) {
     this.enclosing = enclosing;
+    this.values = null;
+    this.slots = new Object[size];
   }
   
   public Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
-    }
+    int index = values.indexOf(Symbol.of(name));
+    if (index >= 0) return values.get(index);
 
     if (enclosing != null) return enclosing.get(name);
 
     throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
   }
 
+  // A number stored with assignDouble() is read back without boxing; anything
+  // else is handed over in the exception.
+  public double getDouble(Token name) throws UnexpectedResultException {
+    int index = values.indexOf(Symbol.of(name));
+    if (index >= 0 && values.isUnboxed(index)) return values.getDouble(index);
+    Object value = index >= 0 ? values.get(index) : get(name);
+    if (value instanceof Double) return (double)value;
+    throw new UnexpectedResultException(value);
+  }
+
   public void assign(Token name, Object value) {
-    if(values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
+    int index = values.indexOf(Symbol.of(name));
+    if (index >= 0) {
+      values.set(index, value);
       return;
     }
 
@@ -41,9 +60,83 @@ public class Environment {
     throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
   }
 
-  public void define(String name, Object value) {
-    values.put(name, value);
+  public void assignDouble(Token name, double value) {
+    int index = values.indexOf(Symbol.of(name));
+    if (index >= 0) {
+      values.setDouble(index, value);
+      return;
+    }
+
+    if (enclosing != null) {
+      enclosing.assignDouble(name, value);
+      return;
+    }
+    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+  }
+
+  public void define(Token name, Object value) {
+    values.define(Symbol.of(name), value);
+  }
+
+  public void defineDouble(Token name, double value) {
+    values.defineDouble(Symbol.of(name), value);
+  }
+
+  public Object getAt(int depth, int slot) {
+    Environment environment = ancestor(depth);
+    Object value = environment.slots[slot];
+    if (value == Unboxed) {
+      // boxed once, until the next unboxed store
+      value = environment.numbers[slot];
+      environment.slots[slot] = value;
+    }
+    return value;
+  }
+
+  public double getDoubleAt(int depth, int slot) throws UnexpectedResultException {
+    Environment environment = ancestor(depth);
+    Object value = environment.slots[slot];
+    if (value == Unboxed) return environment.numbers[slot];
+    if (value instanceof Double) return (double)value;
+    throw new UnexpectedResultException(value);
+  }
+
+  // getDoubleAt() and assignDoubleAt() in one step; a slot that does not hold a
+  // number is left as it is
+  public void addDoubleAt(int depth, int slot, double addend) throws UnexpectedResultException {
+    Environment environment = ancestor(depth);
+    Object value = environment.slots[slot];
+    if (value == Unboxed) {
+      environment.numbers[slot] += addend;
+      return;
+    }
+    if (!(value instanceof Double)) throw new UnexpectedResultException(value);
+    environment.defineDoubleAt(slot, (double)value + addend);
+  }
+
+  public void assignAt(int depth, int slot, Object value) {
+    ancestor(depth).slots[slot] = value;
   }
-}
 
+  public void assignDoubleAt(int depth, int slot, double value) {
+    ancestor(depth).defineDoubleAt(slot, value);
+  }
 
+  public void defineAt(int slot, Object value) {
+    slots[slot] = value;
+  }
+
+  public void defineDoubleAt(int slot, double value) {
+    if (numbers == null) numbers = new double[slots.length];
+    numbers[slot] = value;
+    slots[slot] = Unboxed;
+  }
+
+  private Environment ancestor(int depth) {
+    Environment environment = this;
+    for (int i = 0; i < depth; i++) {
+      environment = environment.enclosing;
+    }
+    return environment;
+  }
+}
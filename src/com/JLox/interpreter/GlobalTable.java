@@ -0,0 +1,124 @@
+package com.JLox.interpreter;
+
+import java.util.Arrays;
+
+import com.JLox.scanner.Symbol;
+
+// Global variables in dense arrays, found by the name's Symbol id instead of by
+// hashing the name. Symbol ids are process-wide and keep growing in a long-lived
+// process (embedding, batch runs), so a table only takes space for the names it
+// defines: the first DirectIds ids map to an index through a plain array, grown
+// as needed, which covers every name of most programs; later ids go through a
+// small open-addressing map.
+public final class GlobalTable {
+  // marks names whose number is held in 'numbers' instead of as a Double
+  private static final Object Unboxed = new Object();
+  private static final int DirectIds = 1024;
+
+  // index + 1 by Symbol id, 0 for names not defined here
+  private int[] direct = new int[0];
+  // For the other ids, buckets of two ints: the Symbol id + 1 (0 for an empty
+  // bucket) and the index it maps to. The number of buckets is a power of two,
+  // at most half of them used.
+  private int[] buckets = new int[2 * 8];
+  private int hashed = 0;
+  // names defined
+  private int count = 0;
+  // nil is stored as null
+  private Object[] values = new Object[8];
+  private double[] numbers = new double[8];
+
+  // Where the name's value is, or -1 when it is not defined. Callers look a
+  // name up once and then use the index for the value.
+  public int indexOf(Symbol name) {
+    int id = name.id;
+    int[] direct = this.direct;
+    if (id < direct.length) return direct[id] - 1;
+    if (id < DirectIds) return -1;
+
+    int[] buckets = this.buckets;
+    int key = id + 1;
+    int mask = buckets.length - 2;
+    for (int bucket = (2 * key) & mask; ; bucket = (bucket + 2) & mask) {
+      int found = buckets[bucket];
+      if (found == key) return buckets[bucket + 1];
+      if (found == 0) return -1;
+    }
+  }
+
+  public Object get(int index) {
+    Object value = values[index];
+    if (value == Unboxed) {
+      // boxed once, until the next unboxed store
+      value = numbers[index];
+      values[index] = value;
+    }
+    return value;
+  }
+
+  public boolean isUnboxed(int index) {
+    return values[index] == Unboxed;
+  }
+
+  // only valid when isUnboxed(index)
+  public double getDouble(int index) {
+    return numbers[index];
+  }
+
+  public void set(int index, Object value) {
+    values[index] = value;
+  }
+
+  public void setDouble(int index, double value) {
+    values[index] = Unboxed;
+    numbers[index] = value;
+  }
+
+  public void define(Symbol name, Object value) {
+    set(reserve(name), value);
+  }
+
+  public void defineDouble(Symbol name, double value) {
+    setDouble(reserve(name), value);
+  }
+
+  // the index of the name's value, adding the name if it is new
+  private int reserve(Symbol name) {
+    int index = indexOf(name);
+    if (index >= 0) return index;
+
+    index = count++;
+    if (index == values.length) {
+      values = Arrays.copyOf(values, 2 * index);
+      numbers = Arrays.copyOf(numbers, 2 * index);
+    }
+    int id = name.id;
+    if (id < DirectIds) {
+      if (id >= direct.length) {
+        direct = Arrays.copyOf(direct, Math.min(DirectIds, Math.max(2 * direct.length, id + 1)));
+      }
+      direct[id] = index + 1;
+      return index;
+    }
+
+    if (4 * ++hashed > buckets.length) rehash(2 * buckets.length);
+    insert(id + 1, index);
+    return index;
+  }
+
+  private void rehash(int length) {
+    int[] old = buckets;
+    buckets = new int[length];
+    for (int bucket = 0; bucket < old.length; bucket += 2) {
+      if (old[bucket] != 0) insert(old[bucket], old[bucket + 1]);
+    }
+  }
+
+  private void insert(int key, int index) {
+    int mask = buckets.length - 2;
+    int bucket = (2 * key) & mask;
+    while (buckets[bucket] != 0) bucket = (bucket + 2) & mask;
+    buckets[bucket] = key;
+    buckets[bucket + 1] = index;
+  }
+}
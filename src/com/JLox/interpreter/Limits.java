@@ -0,0 +1,125 @@
+package com.JLox.interpreter;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.JLox.scanner.Token;
+import com.JLox.scanner.TokenType;
+import com.tool.RuntimeError;
+
+// Caps on one run of a program. Fuel is the number of steps it may take (the
+// tree-walker counts statements and loop iterations, the VM loop iterations); the
+// timeout bounds its wall-clock time; the memory quota bounds the bytes the run's
+// thread allocates. Running out of any of them ends the run with a RuntimeError
+// on the line it got to.
+//
+// Engines count steps down in a plain field and only call into the Meter when it
+// goes below zero, at least every slice of steps, so the deadline costs one
+// System.nanoTime() per slice and a run without limits never calls it at all.
+// Allocation is sampled from the JVM's per-thread counter on the same schedule,
+// with shorter slices; a string is checked against the quota as soon as a
+// concatenation makes it, since building its characters can take a lot of
+// memory in a single step.
+public final class Limits {
+  public static final long NoFuelLimit = Long.MAX_VALUE;
+  public static final long NoMemoryLimit = Long.MAX_VALUE;
+  private static final long Slice = 10_000;
+  private static final long MemorySlice = 1_000;
+
+  private final long fuel;
+  // 0 when there is no deadline
+  private final long timeoutNanos;
+  private final long memoryBytes;
+
+  public Limits(long fuel, long timeout, TimeUnit unit) {
+    this(fuel, timeout, unit, NoMemoryLimit);
+  }
+
+  public Limits(long fuel, long timeout, TimeUnit unit, long memoryBytes) {
+    if (fuel < 0 || timeout < 0 || memoryBytes < 0) throw new IllegalArgumentException("negative limit");
+    this.fuel = fuel;
+    this.timeoutNanos = unit.toNanos(timeout);
+    this.memoryBytes = memoryBytes;
+  }
+
+  // Bytes the current thread has allocated so far, or -1 when the JVM does not
+  // count them.
+  public static long allocatedBytes() {
+    com.sun.management.ThreadMXBean threads = Management.Threads;
+    return threads != null ? threads.getCurrentThreadAllocatedBytes() : -1;
+  }
+
+  // Starts the clock for a run.
+  public Meter start() {
+    return new Meter();
+  }
+
+  public final class Meter {
+    private final long deadline = System.nanoTime() + timeoutNanos;
+    private final long slice = memoryBytes != NoMemoryLimit ? MemorySlice : Slice;
+    private final long allocatedAtStart = memoryBytes != NoMemoryLimit ? allocatedBytes() : -1;
+    private long used = 0;
+    private long granted;
+
+    private Meter() {
+      granted = Math.min(slice, fuel);
+    }
+
+    // the steps a run may take before calling next()
+    public long first() {
+      return granted;
+    }
+
+    // Called for the step after the last one granted; returns how many more
+    // steps may follow it, or throws when a limit is reached.
+    public long next(int line) {
+      used += granted;
+      if (used >= fuel) {
+        throw new RuntimeError(at(line), "Out of fuel after " + fuel + " steps.");
+      }
+      if (timeoutNanos > 0 && System.nanoTime() - deadline > 0) {
+        throw new RuntimeError(at(line), "Deadline of " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms exceeded.");
+      }
+      if (allocatedAtStart >= 0 && allocatedBytes() - allocatedAtStart > memoryBytes) {
+        throw outOfMemory(line);
+      }
+      granted = Math.min(slice, fuel - used);
+      // this step is the first of the new grant
+      return granted - 1;
+    }
+  }
+
+  // Called with the result of a concatenation. Its characters take two bytes
+  // each once the string is flattened.
+  public void checkString(Object value, int line) {
+    if (value instanceof LoxString && 2L * ((LoxString)value).length() > memoryBytes) {
+      throw outOfMemory(line);
+    }
+  }
+
+  private RuntimeError outOfMemory(int line) {
+    return new RuntimeError(at(line), "Memory quota of " + memoryBytes + " bytes exceeded.");
+  }
+
+  // loaded on first use, starting the management beans takes a while
+  private static final class Management {
+    static final com.sun.management.ThreadMXBean Threads = threads();
+
+    private static com.sun.management.ThreadMXBean threads() {
+      try {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+          com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean)threads;
+          if (counting.isThreadAllocatedMemorySupported() && counting.isThreadAllocatedMemoryEnabled()) return counting;
+        }
+      } catch (LinkageError | SecurityException e) {
+        // no java.management module
+      }
+      return null;
+    }
+  }
+
+  private static Token at(int line) {
+    return new Token(TokenType.Eof, "", null, line);
+  }
+}
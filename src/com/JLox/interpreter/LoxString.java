@@ -0,0 +1,93 @@
+package com.JLox.interpreter;
+
+import java.util.ArrayDeque;
+
+import static com.JLox.interpreter.Values.stringify;
+
+// The result of + on strings. A long result is a rope: it keeps both operands and
+// only adds up their lengths, so building a string piece by piece in a loop takes
+// linear time instead of copying everything built so far on every step. The
+// characters are joined the first time the text is needed (printing, ==, hashing)
+// and the joined String is kept. Short results are joined right away; for them a
+// rope node costs more than the copy.
+//
+// Not thread-safe: flattening writes to the node. Values never leave the Context
+// that made them, so no two threads see the same LoxString.
+public final class LoxString {
+  private static final int MinRopeLength = 64;
+
+  private final int length;
+  // String or LoxString; dropped once flattened
+  private Object left;
+  private Object right;
+  private String flat;
+
+  private LoxString(Object left, Object right, int length) {
+    this.left = left;
+    this.right = right;
+    this.length = length;
+  }
+
+  // stringify(a) + stringify(b), as a String or a LoxString
+  public static Object concat(Object a, Object b) {
+    Object left = a instanceof LoxString ? a : stringify(a);
+    Object right = b instanceof LoxString ? b : stringify(b);
+    int length = length(left) + length(right);
+    if (length < MinRopeLength || length < 0) {
+      // a sum past Integer.MAX_VALUE fails here like String concatenation does
+      return left.toString() + right.toString();
+    }
+    return new LoxString(left, right, length);
+  }
+
+  private static int length(Object part) {
+    return part instanceof LoxString ? ((LoxString)part).length : ((String)part).length();
+  }
+
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public String toString() {
+    if (flat != null) return flat;
+
+    // Fill the characters from the end, right operands first. Walking the rope
+    // with an explicit stack keeps the depth of a rope built in a loop (one level
+    // per iteration) off the Java stack.
+    char[] chars = new char[length];
+    int end = length;
+    ArrayDeque<Object> pending = new ArrayDeque<>();
+    pending.push(left);
+    pending.push(right);
+    while (!pending.isEmpty()) {
+      Object part = pending.pop();
+      if (part instanceof LoxString && ((LoxString)part).flat == null) {
+        LoxString rope = (LoxString)part;
+        pending.push(rope.left);
+        pending.push(rope.right);
+      } else {
+        String text = part.toString();
+        end -= text.length();
+        text.getChars(0, text.length(), chars, end);
+      }
+    }
+
+    flat = new String(chars);
+    left = null;
+    right = null;
+    return flat;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) return true;
+    if (!(other instanceof LoxString) || ((LoxString)other).length != length) return false;
+    return toString().equals(other.toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+}
@@ -0,0 +1,23 @@
+package com.JLox.interpreter;
+
+// Collects printed lines in memory, for embedding the interpreter and for tests.
+public final class MemorySink implements OutputSink {
+  private final StringBuilder text = new StringBuilder();
+
+  @Override
+  public void println(String line) {
+    text.append(line).append('\n');
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  public String contents() {
+    return text.toString();
+  }
+
+  public void clear() {
+    text.setLength(0);
+  }
+}
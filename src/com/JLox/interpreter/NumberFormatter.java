@@ -0,0 +1,66 @@
+package com.JLox.interpreter;
+
+// Writes numbers the way stringify() prints them, without Double.toString and the
+// substring that trims ".0". Covers the numbers scripts print almost always:
+// zero and anything from 0.001 up to 10^7 that has 15 significant digits or fewer.
+// Those are exactly the values some decimal m / 10^k with m < 10^15 converts to.
+// That decimal is then the shortest one that converts back to the value, and it is
+// what Double.toString prints in plain (non-E) notation. Everything else falls
+// back to stringify().
+public final class NumberFormatter {
+  // longest output of the fast path: sign, 15 digits, point, leading "0." zeros
+  public static final int MaxLength = 24;
+
+  private static final long MaxDigits = 1_000_000_000_000_000L;
+  private static final double[] Powers = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+  };
+
+  private NumberFormatter() {}
+
+  // Writes the text of 'value' as ASCII at out[offset] and returns the offset after
+  // it, or -1 if the fast path does not cover the value. Needs MaxLength bytes.
+  public static int format(double value, byte[] out, int offset) {
+    double magnitude = Math.abs(value);
+    if (magnitude == 0) {
+      // stringify prints -0.0 as "-0"
+      if (Double.doubleToRawLongBits(value) != 0) out[offset++] = '-';
+      out[offset++] = '0';
+      return offset;
+    }
+    // also false for NaN and the infinities
+    if (!(magnitude >= 1e-3 && magnitude < 1e7)) return -1;
+
+    // the fewest decimals that give the value back
+    for (int decimals = 0; decimals < Powers.length; decimals++) {
+      double scaled = magnitude * Powers[decimals];
+      if (scaled >= MaxDigits) return -1;
+      long digits = Math.round(scaled);
+      if (digits / Powers[decimals] != magnitude) continue;
+
+      if (value < 0) out[offset++] = '-';
+      return write(digits, decimals, out, offset);
+    }
+    return -1;
+  }
+
+  // the digits of 'digits' with a decimal point 'decimals' places from the right
+  private static int write(long digits, int decimals, byte[] out, int offset) {
+    int length = 1;
+    for (long rest = digits / 10; rest != 0; rest /= 10) length++;
+    // at least one digit before the point: 0.001 is "0" "." "001"
+    int total = Math.max(length, decimals + 1) + (decimals > 0 ? 1 : 0);
+
+    int position = offset + total;
+    for (int i = 0; i < decimals; i++) {
+      out[--position] = (byte)('0' + digits % 10);
+      digits /= 10;
+    }
+    if (decimals > 0) out[--position] = '.';
+    do {
+      out[--position] = (byte)('0' + digits % 10);
+      digits /= 10;
+    } while (digits != 0);
+    return offset + total;
+  }
+}
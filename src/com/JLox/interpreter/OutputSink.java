@@ -0,0 +1,14 @@
+package com.JLox.interpreter;
+
+// Where the print statement writes. Implementations may buffer; callers that
+// interleave other output (error reports on stderr) flush first to keep the order.
+public interface OutputSink {
+  void println(String line);
+
+  // print of a number; sinks that hold bytes can format it in place
+  default void println(double value) {
+    println(Values.stringify(value));
+  }
+
+  void flush();
+}
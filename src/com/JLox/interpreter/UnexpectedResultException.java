@@ -0,0 +1,13 @@
+package com.JLox.interpreter;
+
+// Thrown by the typed evaluation paths when a node produces a value of a different
+// type than it specialized on. Carries the already computed value so the caller
+// can finish the operation generically without evaluating anything twice.
+public class UnexpectedResultException extends Exception {
+  public final Object result;
+
+  public UnexpectedResultException(Object result) {
+    super(null, null, false, false);
+    this.result = result;
+  }
+}
@@ -0,0 +1,47 @@
+package com.JLox.interpreter;
+
+import java.nio.charset.StandardCharsets;
+
+// Truthiness, equality and printing rules shared by every execution engine.
+public final class Values {
+  private Values() {}
+
+  public static boolean isTruthy(Object object) {
+    if (object == null) return false;
+    if (object instanceof Boolean) return (boolean)object;
+    return true;
+  }
+
+  public static boolean isEqual(Object a, Object b) {
+    if(a == null && b == null) return true;
+    if (a == null) return false;
+
+    // a rope is equal to the String with the same text
+    if (a instanceof LoxString) a = a.toString();
+    if (b instanceof LoxString) b = b.toString();
+
+    return a.equals(b);
+  }
+
+  // String or LoxString
+  public static boolean isString(Object object) {
+    return object instanceof String || object instanceof LoxString;
+  }
+
+  public static String stringify(Object object) {
+    if(object == null) return "nil";
+
+    if (object instanceof Double) {
+      byte[] digits = new byte[NumberFormatter.MaxLength];
+      int length = NumberFormatter.format((double)object, digits, 0);
+      if (length >= 0) return new String(digits, 0, length, StandardCharsets.ISO_8859_1);
+
+      String text = object.toString();
+      if (text.endsWith(".0")) {
+        text = text.substring(0, text.length()-2);
+      }
+      return text;
+    }
+    return object.toString();
+  }
+}
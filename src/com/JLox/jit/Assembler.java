@@ -0,0 +1,305 @@
+package com.JLox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes a class file with a single static method. The class version is 49 so
+// the JVM verifies it by type inference and no stack map frames are needed. Stack
+// depth is tracked as code is emitted (in slots, doubles take two) to get max_stack.
+final class Assembler {
+  static final int ICONST_0 = 0x03;
+  static final int ICONST_1 = 0x04;
+  static final int DCONST_0 = 0x0e;
+  static final int DCONST_1 = 0x0f;
+  static final int BIPUSH = 0x10;
+  static final int SIPUSH = 0x11;
+  static final int LDC_W = 0x13;
+  static final int LDC2_W = 0x14;
+  static final int ILOAD = 0x15;
+  static final int DLOAD = 0x18;
+  static final int ALOAD_0 = 0x2a;
+  static final int ALOAD_1 = 0x2b;
+  static final int DALOAD = 0x31;
+  static final int ISTORE = 0x36;
+  static final int DSTORE = 0x39;
+  static final int DASTORE = 0x52;
+  static final int POP = 0x57;
+  static final int POP2 = 0x58;
+  static final int DUP = 0x59;
+  static final int DUP2 = 0x5c;
+  static final int DADD = 0x63;
+  static final int DSUB = 0x67;
+  static final int DMUL = 0x6b;
+  static final int DDIV = 0x6f;
+  static final int DNEG = 0x77;
+  static final int IXOR = 0x82;
+  static final int I2D = 0x87;
+  static final int D2I = 0x8e;
+  static final int LCMP = 0x94;
+  static final int DCMPL = 0x97;
+  static final int DCMPG = 0x98;
+  static final int IFEQ = 0x99;
+  static final int IFNE = 0x9a;
+  static final int IFLT = 0x9b;
+  static final int IFGE = 0x9c;
+  static final int IFGT = 0x9d;
+  static final int IFLE = 0x9e;
+  static final int IF_ICMPEQ = 0x9f;
+  static final int IF_ICMPNE = 0xa0;
+  static final int GOTO = 0xa7;
+  static final int RETURN = 0xb1;
+  static final int INVOKESTATIC = 0xb8;
+  static final int WIDE = 0xc4;
+
+  // thrown when the code does not fit the 16-bit branch offsets
+  static final class TooLarge extends RuntimeException {
+    TooLarge() {
+      super(null, null, false, false);
+    }
+  }
+
+  static final class Label {
+    private int position = -1;
+    private int stack = -1;
+    private final List<Integer> jumps = new ArrayList<>();
+  }
+
+  private final List<Object[]> constants = new ArrayList<>();
+  private final Map<List<Object>, Integer> constantIndex = new HashMap<>();
+  private int constantCount = 1;
+
+  private byte[] code = new byte[256];
+  private int length = 0;
+  private int stack = 0;
+  private int maxStack = 0;
+  private int maxLocals = 0;
+
+  // --- code ---
+
+  void op(int opcode, int stackDelta) {
+    u1(opcode);
+    adjust(stackDelta);
+  }
+
+  void op(int opcode, int operand, int stackDelta) {
+    u1(opcode);
+    u1(operand);
+    adjust(stackDelta);
+  }
+
+  void local(int opcode, int index, int stackDelta) {
+    if (index > 255) {
+      u1(WIDE);
+      u1(opcode);
+      u2(index);
+    } else {
+      u1(opcode);
+      u1(index);
+    }
+    adjust(stackDelta);
+  }
+
+  void pushInt(int value) {
+    if (value >= -1 && value <= 5) {
+      op(ICONST_0 + value, 1);
+    } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      op(BIPUSH, value & 0xff, 1);
+    } else {
+      u1(SIPUSH);
+      u2(value);
+      adjust(1);
+    }
+  }
+
+  void pushDouble(double value) {
+    if (Double.doubleToLongBits(value) == Double.doubleToLongBits(0.0)) {
+      op(DCONST_0, 2);
+    } else if (value == 1.0) {
+      op(DCONST_1, 2);
+    } else {
+      u1(LDC2_W);
+      u2(constant(6, value));
+      adjust(2);
+    }
+  }
+
+  void pushString(String value) {
+    u1(LDC_W);
+    u2(constant(8, constant(1, value)));
+    adjust(1);
+  }
+
+  void invokeStatic(String owner, String name, String descriptor, int stackDelta) {
+    int nameAndType = constant(12, constant(1, name), constant(1, descriptor));
+    u1(INVOKESTATIC);
+    u2(constant(10, classConstant(owner), nameAndType));
+    adjust(stackDelta);
+  }
+
+  void jump(int opcode, Label target, int stackDelta) {
+    int at = length;
+    u1(opcode);
+    u2(0);
+    adjust(stackDelta);
+    if (target.position >= 0) {
+      patch(at, target.position);
+    } else {
+      target.jumps.add(at);
+      target.stack = stack;
+    }
+    // nothing falls through a goto; the next bound label says what is on the stack
+    if (opcode == GOTO) stack = -1;
+  }
+
+  void bind(Label label) {
+    label.position = length;
+    for (int at : label.jumps) {
+      patch(at, length);
+    }
+    if (label.stack >= 0) stack = label.stack;
+    if (stack < 0) stack = 0;
+  }
+
+  void useLocals(int count) {
+    maxLocals = Math.max(maxLocals, count);
+  }
+
+  // Removes and returns the code emitted so far; jumps inside it are relative and
+  // stay valid wherever it is appended again.
+  byte[] takeCode() {
+    byte[] taken = Arrays.copyOf(code, length);
+    length = 0;
+    stack = 0;
+    return taken;
+  }
+
+  void append(byte[] bytes) {
+    ensure(bytes.length);
+    System.arraycopy(bytes, 0, code, length, bytes.length);
+    length += bytes.length;
+  }
+
+  private void adjust(int delta) {
+    stack += delta;
+    maxStack = Math.max(maxStack, stack);
+  }
+
+  private void patch(int at, int target) {
+    int offset = target - at;
+    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) throw new TooLarge();
+    code[at + 1] = (byte)(offset >> 8);
+    code[at + 2] = (byte)offset;
+  }
+
+  private void u1(int value) {
+    ensure(1);
+    code[length++] = (byte)value;
+  }
+
+  private void u2(int value) {
+    ensure(2);
+    code[length++] = (byte)(value >> 8);
+    code[length++] = (byte)value;
+  }
+
+  private void ensure(int extra) {
+    if (length + extra > code.length) {
+      code = Arrays.copyOf(code, Math.max(code.length * 2, length + extra));
+    }
+  }
+
+  // --- constant pool ---
+
+  private int classConstant(String internalName) {
+    return constant(7, constant(1, internalName));
+  }
+
+  private int constant(int tag, Object... values) {
+    List<Object> key = new ArrayList<>(values.length + 1);
+    key.add(tag);
+    key.addAll(Arrays.asList(values));
+    Integer index = constantIndex.get(key);
+    if (index != null) return index;
+
+    index = constantCount;
+    // doubles take two entries
+    constantCount += tag == 6 ? 2 : 1;
+    if (constantCount > 0xffff) throw new TooLarge();
+    constantIndex.put(key, index);
+    Object[] entry = new Object[values.length + 1];
+    entry[0] = tag;
+    System.arraycopy(values, 0, entry, 1, values.length);
+    constants.add(entry);
+    return index;
+  }
+
+  // --- class file ---
+
+  byte[] toClass(String className, String methodName, String descriptor) {
+    if (length > 0xffff) throw new TooLarge();
+
+    int thisClass = classConstant(className);
+    int superClass = classConstant("java/lang/Object");
+    int name = constant(1, methodName);
+    int type = constant(1, descriptor);
+    int codeAttribute = constant(1, "Code");
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + 256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      out.writeShort(49);
+
+      out.writeShort(constantCount);
+      for (Object[] entry : constants) {
+        int tag = (int)entry[0];
+        out.writeByte(tag);
+        switch (tag) {
+          case 1: out.writeUTF((String)entry[1]); break;
+          case 6: out.writeDouble((double)entry[1]); break;
+          default:
+            for (int i = 1; i < entry.length; i++) {
+              out.writeShort((int)entry[i]);
+            }
+        }
+      }
+
+      out.writeShort(0x0010 | 0x0020); // final, super
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); // interfaces
+      out.writeShort(0); // fields
+
+      out.writeShort(1);
+      out.writeShort(0x0001 | 0x0008); // public static
+      out.writeShort(name);
+      out.writeShort(type);
+      out.writeShort(1);
+      out.writeShort(codeAttribute);
+      out.writeInt(12 + length);
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(length);
+      out.write(code, 0, length);
+      out.writeShort(0); // exception table
+      out.writeShort(0); // code attributes
+
+      out.writeShort(0); // class attributes
+    } catch (UTFDataFormatException e) {
+      // a string constant longer than 64K of UTF-8
+      throw new TooLarge();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,104 @@
+package com.JLox.jit;
+
+import java.lang.invoke.MethodHandle;
+
+import com.JLox.interpreter.Environment;
+import com.JLox.interpreter.OutputSink;
+import com.JLox.scanner.Token;
+import com.tool.RuntimeError;
+import static com.JLox.interpreter.Values.*;
+
+// A while loop compiled to a hidden class. The generated method keeps every
+// variable the loop touches in a JVM local, typed after the values the variables
+// held when the loop was compiled. enter() checks that they still hold values of
+// those types, copies them in, runs the remaining iterations and copies the
+// results back.
+public final class CompiledLoop {
+  // a variable declared outside the loop: a slot 'hops' environments up from the
+  // loop's own environment, or a global when hops is -1
+  static final class Binding {
+    final Token name;
+    final int hops;
+    final int slot;
+    final boolean bool;
+    final int local;
+    boolean assigned = false;
+
+    Binding(Token name, int hops, int slot, boolean bool, int local) {
+      this.name = name;
+      this.hops = hops;
+      this.slot = slot;
+      this.bool = bool;
+      this.local = local;
+    }
+  }
+
+  private final MethodHandle code;
+  private final Binding[] bindings;
+
+  CompiledLoop(MethodHandle code, Binding[] bindings) {
+    this.code = code;
+    this.bindings = bindings;
+  }
+
+  // Runs the rest of the loop. Returns false, having run nothing, when a variable
+  // holds a type the code was not compiled for; the caller keeps interpreting.
+  public boolean enter(Environment environment, Environment globals, OutputSink out) {
+    double[] state = new double[bindings.length];
+    for (int i = 0; i < bindings.length; i++) {
+      Binding binding = bindings[i];
+      Object value;
+      try {
+        value = binding.hops >= 0
+            ? environment.getAt(binding.hops, binding.slot)
+            : globals.get(binding.name);
+      } catch (RuntimeError error) {
+        // undefined global, let the interpreter report it
+        return false;
+      }
+
+      if (binding.bool) {
+        if (!(value instanceof Boolean)) return false;
+        state[i] = (boolean)value ? 1 : 0;
+      } else {
+        if (!(value instanceof Double)) return false;
+        state[i] = (double)value;
+      }
+    }
+
+    try {
+      code.invokeExact(state, out);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+
+    for (int i = 0; i < bindings.length; i++) {
+      Binding binding = bindings[i];
+      if (!binding.assigned) continue;
+
+      Object value = binding.bool ? (Object)(state[i] != 0) : (Object)state[i];
+      if (binding.hops >= 0) {
+        environment.assignAt(binding.hops, binding.slot, value);
+      } else {
+        globals.assign(binding.name, value);
+      }
+    }
+    return true;
+  }
+
+  // called from the generated code
+
+  static void print(OutputSink out, double value) {
+    out.println(value);
+  }
+
+  static void print(OutputSink out, boolean value) {
+    out.println(stringify(value));
+  }
+
+  static void print(OutputSink out, String value) {
+    out.println(value);
+  }
+}
@@ -0,0 +1,444 @@
+package com.JLox.jit;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.JLox.interpreter.Environment;
+import com.JLox.interpreter.OutputSink;
+import com.JLox.jit.Assembler.Label;
+import com.JLox.jit.CompiledLoop.Binding;
+import com.JLox.parser.Expr;
+import com.JLox.parser.Stmt;
+import com.JLox.scanner.Token;
+import com.tool.RuntimeError;
+import static com.JLox.jit.Assembler.*;
+import static com.JLox.scanner.TokenType.*;
+
+// Compiles a hot while loop (condition, body and any loops nested in it) to the
+// static method of a hidden class, so HotSpot can compile it like Java code.
+//
+// Only numbers and booleans are supported. Every variable gets a static type: the
+// type of its current value for variables declared outside the loop, the type of
+// the initializer for ones declared inside. An expression that could produce
+// anything else (nil, strings other than printed literals, mixing types) makes the
+// whole loop unsupported and it stays interpreted. With these types no operation in
+// the compiled code can fail, so only the entry check in CompiledLoop can send
+// execution back to the interpreter.
+public final class LoopCompiler implements Expr.Visitor<LoopCompiler.Kind>, Stmt.Visitor<Void> {
+  enum Kind { Number, Bool }
+
+  private static final String Helpers = "com/JLox/jit/CompiledLoop";
+  private static final String Descriptor = "([DLcom/JLox/interpreter/OutputSink;)V";
+  private static final MethodType Type = MethodType.methodType(void.class, double[].class, OutputSink.class);
+
+  private static final class Unsupported extends RuntimeException {
+    Unsupported() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final class Local {
+    final int index;
+    final Kind kind;
+    // set for variables declared outside the loop
+    final Binding binding;
+
+    Local(int index, Kind kind, Binding binding) {
+      this.index = index;
+      this.kind = kind;
+      this.binding = binding;
+    }
+  }
+
+  private final Environment environment;
+  private final Environment globals;
+  private final Assembler asm = new Assembler();
+  private final List<Binding> bindings = new ArrayList<>();
+  private final Map<String, Local> external = new HashMap<>();
+  // one map per block entered inside the loop, from resolver slot to local
+  private final List<Map<Integer, Local>> scopes = new ArrayList<>();
+  // 0 and 1 are the parameters: the state array and the output sink
+  private int nextLocal = 2;
+
+  private LoopCompiler(Environment environment, Environment globals) {
+    this.environment = environment;
+    this.globals = globals;
+  }
+
+  // Returns null when the loop uses something the compiler does not support.
+  // 'environment' is the one the loop runs in; the current values found there
+  // decide the types the code is compiled for.
+  public static CompiledLoop compile(Stmt.While loop, Environment environment, Environment globals) {
+    try {
+      return new LoopCompiler(environment, globals).compile(loop);
+    } catch (Unsupported | Assembler.TooLarge e) {
+      return null;
+    }
+  }
+
+  private CompiledLoop compile(Stmt.While loop) {
+    loop.accept(this);
+    byte[] body = asm.takeCode();
+
+    // load the variables from the state array, run, store back what was assigned
+    for (int i = 0; i < bindings.size(); i++) {
+      Binding binding = bindings.get(i);
+      asm.op(ALOAD_0, 1);
+      asm.pushInt(i);
+      asm.op(DALOAD, 0);
+      if (binding.bool) {
+        asm.op(D2I, -1);
+        asm.local(ISTORE, binding.local, -1);
+      } else {
+        asm.local(DSTORE, binding.local, -2);
+      }
+    }
+    asm.append(body);
+    for (int i = 0; i < bindings.size(); i++) {
+      Binding binding = bindings.get(i);
+      if (!binding.assigned) continue;
+      asm.op(ALOAD_0, 1);
+      asm.pushInt(i);
+      if (binding.bool) {
+        asm.local(ILOAD, binding.local, 1);
+        asm.op(I2D, 1);
+      } else {
+        asm.local(DLOAD, binding.local, 2);
+      }
+      asm.op(DASTORE, -4);
+    }
+    asm.op(RETURN, 0);
+    asm.useLocals(nextLocal);
+
+    byte[] bytes = asm.toClass("com/JLox/jit/Loop", "run", Descriptor);
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+      MethodHandle code = lookup.findStatic(lookup.lookupClass(), "run", Type);
+      return new CompiledLoop(code, bindings.toArray(new Binding[0]));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // --- variables ---
+
+  private Local resolve(Token name, int depth, int slot) {
+    if (depth >= 0 && depth < scopes.size()) {
+      Local local = scopes.get(scopes.size() - 1 - depth).get(slot);
+      if (local == null) throw new Unsupported();
+      return local;
+    }
+
+    int hops = depth >= 0 ? depth - scopes.size() : -1;
+    String key = hops >= 0 ? hops + ":" + slot : name.lexeme;
+    Local local = external.get(key);
+    if (local != null) return local;
+
+    Object value;
+    try {
+      value = hops >= 0 ? environment.getAt(hops, slot) : globals.get(name);
+    } catch (RuntimeError error) {
+      throw new Unsupported();
+    }
+    Kind kind;
+    if (value instanceof Double) {
+      kind = Kind.Number;
+    } else if (value instanceof Boolean) {
+      kind = Kind.Bool;
+    } else {
+      throw new Unsupported();
+    }
+
+    Binding binding = new Binding(name, hops, slot, kind == Kind.Bool, allocate(kind));
+    bindings.add(binding);
+    local = new Local(binding.local, kind, binding);
+    external.put(key, local);
+    return local;
+  }
+
+  private int allocate(Kind kind) {
+    int index = nextLocal;
+    nextLocal += kind == Kind.Number ? 2 : 1;
+    return index;
+  }
+
+  private void load(Local local) {
+    if (local.kind == Kind.Number) {
+      asm.local(DLOAD, local.index, 2);
+    } else {
+      asm.local(ILOAD, local.index, 1);
+    }
+  }
+
+  private void store(Local local) {
+    if (local.kind == Kind.Number) {
+      asm.local(DSTORE, local.index, -2);
+    } else {
+      asm.local(ISTORE, local.index, -1);
+    }
+  }
+
+  // --- expressions ---
+
+  private Kind compile(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private void compile(Expr expr, Kind expected) {
+    if (compile(expr) != expected) throw new Unsupported();
+  }
+
+  // Leaves nothing on the stack and jumps to target when the condition is falsey.
+  private void branchIfFalse(Expr condition, Label target) {
+    if (compile(condition) == Kind.Number) {
+      // numbers are always truthy
+      asm.op(POP2, -2);
+    } else {
+      asm.jump(IFEQ, target, -1);
+    }
+  }
+
+  private void pop(Kind kind) {
+    asm.op(kind == Kind.Number ? POP2 : POP, kind == Kind.Number ? -2 : -1);
+  }
+
+  // jumps to 'otherwise' leave false, falling through leaves true
+  private void pushBoolean(Label otherwise) {
+    Label end = new Label();
+    asm.op(ICONST_1, 1);
+    asm.jump(GOTO, end, 0);
+    asm.bind(otherwise);
+    asm.op(ICONST_0, 1);
+    asm.bind(end);
+  }
+
+  @Override
+  public Kind visitAssignExpr(Expr.Assign expr) {
+    Local local = resolve(expr.name, expr.depth, expr.slot);
+    compile(expr.value, local.kind);
+    asm.op(local.kind == Kind.Number ? DUP2 : DUP, local.kind == Kind.Number ? 2 : 1);
+    store(local);
+    if (local.binding != null) local.binding.assigned = true;
+    return local.kind;
+  }
+
+  @Override
+  public Kind visitBinaryExpr(Expr.Binary expr) {
+    Label otherwise = new Label();
+    switch (expr.operator.type) {
+      case Plus:
+      case Minus:
+      case Star:
+      case Slash:
+        compile(expr.left, Kind.Number);
+        compile(expr.right, Kind.Number);
+        switch (expr.operator.type) {
+          case Plus:  asm.op(DADD, -2); break;
+          case Minus: asm.op(DSUB, -2); break;
+          case Star:  asm.op(DMUL, -2); break;
+          default:    asm.op(DDIV, -2); break;
+        }
+        return Kind.Number;
+
+      // comparisons with NaN are false: dcmpl gives -1 for them, dcmpg 1
+      case Greater:
+      case GreaterEqual:
+      case Less:
+      case LessEqual:
+        compile(expr.left, Kind.Number);
+        compile(expr.right, Kind.Number);
+        switch (expr.operator.type) {
+          case Greater:
+            asm.op(DCMPL, -3);
+            asm.jump(IFLE, otherwise, -1);
+            break;
+          case GreaterEqual:
+            asm.op(DCMPL, -3);
+            asm.jump(IFLT, otherwise, -1);
+            break;
+          case Less:
+            asm.op(DCMPG, -3);
+            asm.jump(IFGE, otherwise, -1);
+            break;
+          default:
+            asm.op(DCMPG, -3);
+            asm.jump(IFGT, otherwise, -1);
+            break;
+        }
+        pushBoolean(otherwise);
+        return Kind.Bool;
+
+      case EqualEqual:
+      case BangEqual: {
+        boolean equal = expr.operator.type == EqualEqual;
+        Kind kind = compile(expr.left);
+        if (kind == Kind.Number) {
+          // Double.equals semantics, like isEqual: NaN equals itself, 0 and -0 differ
+          asm.invokeStatic("java/lang/Double", "doubleToLongBits", "(D)J", 0);
+          compile(expr.right, Kind.Number);
+          asm.invokeStatic("java/lang/Double", "doubleToLongBits", "(D)J", 0);
+          asm.op(LCMP, -3);
+          asm.jump(equal ? IFNE : IFEQ, otherwise, -1);
+        } else {
+          compile(expr.right, Kind.Bool);
+          asm.jump(equal ? IF_ICMPNE : IF_ICMPEQ, otherwise, -2);
+        }
+        pushBoolean(otherwise);
+        return Kind.Bool;
+      }
+
+      default:
+        throw new Unsupported();
+    }
+  }
+
+  @Override
+  public Kind visitGroupingExpr(Expr.Grouping expr) {
+    return compile(expr.expression);
+  }
+
+  @Override
+  public Kind visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value instanceof Double) {
+      asm.pushDouble((double)expr.value);
+      return Kind.Number;
+    }
+    if (expr.value instanceof Boolean) {
+      asm.op((boolean)expr.value ? ICONST_1 : ICONST_0, 1);
+      return Kind.Bool;
+    }
+    throw new Unsupported();
+  }
+
+  @Override
+  public Kind visitLogicalExpr(Expr.Logical expr) {
+    boolean or = expr.operator.type == Or;
+    Kind kind = compile(expr.left);
+
+    if (kind == Kind.Number) {
+      // a number is truthy: 'or' is the left operand, 'and' the right one
+      if (or) return Kind.Number;
+      pop(Kind.Number);
+      return compile(expr.right);
+    }
+
+    Label end = new Label();
+    asm.op(DUP, 1);
+    asm.jump(or ? IFNE : IFEQ, end, -1);
+    asm.op(POP, -1);
+    compile(expr.right, Kind.Bool);
+    asm.bind(end);
+    return Kind.Bool;
+  }
+
+  @Override
+  public Kind visitUnaryExpr(Expr.Unary expr) {
+    Kind kind = compile(expr.right);
+    if (expr.operator.type == Minus) {
+      if (kind != Kind.Number) throw new Unsupported();
+      asm.op(DNEG, 0);
+      return Kind.Number;
+    }
+
+    if (kind == Kind.Number) {
+      pop(Kind.Number);
+      asm.op(ICONST_0, 1);
+    } else {
+      asm.op(ICONST_1, 1);
+      asm.op(IXOR, -1);
+    }
+    return Kind.Bool;
+  }
+
+  @Override
+  public Kind visitVariableExpr(Expr.Variable expr) {
+    Local local = resolve(expr.name, expr.depth, expr.slot);
+    load(local);
+    return local.kind;
+  }
+
+  // --- statements ---
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    // blocks without a frame of their own declare into the enclosing one
+    if (stmt.slots > 0) scopes.add(new HashMap<>());
+    for (Stmt statement : stmt.statements) {
+      statement.accept(this);
+    }
+    if (stmt.slots > 0) scopes.remove(scopes.size() - 1);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    pop(compile(stmt.expression));
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    Label otherwise = new Label();
+    branchIfFalse(stmt.condition, otherwise);
+    stmt.thenBranch.accept(this);
+    if (stmt.elseBranch == null) {
+      asm.bind(otherwise);
+      return null;
+    }
+
+    Label end = new Label();
+    asm.jump(GOTO, end, 0);
+    asm.bind(otherwise);
+    stmt.elseBranch.accept(this);
+    asm.bind(end);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    asm.op(ALOAD_1, 1);
+    if (stmt.expression instanceof Expr.Literal && ((Expr.Literal)stmt.expression).value instanceof String) {
+      asm.pushString((String)((Expr.Literal)stmt.expression).value);
+      asm.invokeStatic(Helpers, "print", "(Lcom/JLox/interpreter/OutputSink;Ljava/lang/String;)V", -2);
+    } else if (compile(stmt.expression) == Kind.Number) {
+      asm.invokeStatic(Helpers, "print", "(Lcom/JLox/interpreter/OutputSink;D)V", -3);
+    } else {
+      asm.invokeStatic(Helpers, "print", "(Lcom/JLox/interpreter/OutputSink;Z)V", -2);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    // globals are never declared inside a loop body, and nil has no type here
+    if (stmt.slot < 0 || stmt.initializer == null) throw new Unsupported();
+
+    Kind kind = compile(stmt.initializer);
+    Local local = new Local(allocate(kind), kind, null);
+    store(local);
+    if (scopes.isEmpty()) {
+      // a slot of the frame the loop runs in, only used inside the loop
+      external.put("0:" + stmt.slot, local);
+    } else {
+      scopes.get(scopes.size() - 1).put(stmt.slot, local);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    Label top = new Label();
+    Label end = new Label();
+    asm.bind(top);
+    branchIfFalse(stmt.condition, end);
+    stmt.body.accept(this);
+    asm.jump(GOTO, top, 0);
+    asm.bind(end);
+    return null;
+  }
+}
@@ -0,0 +1,32 @@
+package com.JLox.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+
+@Name("jlox.Counters")
+@Label("Counters")
+@Category("JLox")
+@Description("Totals of the JLox runtime counters")
+@Period("1 s")
+public final class CountersEvent extends jdk.jfr.Event {
+  @Label("Statements Executed")
+  public long statements;
+
+  @Label("Environments Created")
+  public long environments;
+
+  @Label("Environment Hops")
+  public long hops;
+
+  @Label("Slot Lookups")
+  public long slotLookups;
+
+  @Label("Global Lookups")
+  public long globalLookups;
+
+  @Label("Runtime Errors")
+  public long runtimeErrors;
+}
@@ -0,0 +1,86 @@
+package com.JLox.metrics;
+
+import jdk.jfr.FlightRecorder;
+
+// Flight Recorder events for the scan, parse and execute phases. Loading the first
+// event class starts Flight Recorder's own machinery, which takes longer than a
+// small script runs, so callers check enabled() first and only then create an
+// event. Events are passed around as Object so that the phases' classes do not
+// refer to the event classes at all and loading them loads nothing of JFR.
+//
+//   Object event = Events.enabled() ? Events.beginScan() : null;
+//   ...
+//   if (event != null) Events.commitScan(event, characters, tokens);
+public final class Events {
+  private Events() {}
+
+  // registers the periodic jlox.Counters event the first time it is touched
+  private static final class Counters {
+    static {
+      FlightRecorder.addPeriodicEvent(CountersEvent.class, () -> {
+        CountersEvent event = new CountersEvent();
+        event.statements = Metrics.statementsExecuted();
+        event.environments = Metrics.environmentsCreated();
+        event.hops = Metrics.environmentHops();
+        event.slotLookups = Metrics.slotLookups();
+        event.globalLookups = Metrics.globalLookups();
+        event.runtimeErrors = Metrics.runtimeErrors();
+        event.commit();
+      });
+    }
+
+    static void register() {
+    }
+  }
+
+  // true once a recording has been started, from the command line or later on
+  public static boolean enabled() {
+    return FlightRecorder.isInitialized();
+  }
+
+  public static Object beginScan() {
+    Counters.register();
+    ScanEvent event = new ScanEvent();
+    event.begin();
+    return event;
+  }
+
+  public static void commitScan(Object begun, int characters, int tokens) {
+    ScanEvent event = (ScanEvent)begun;
+    if (!event.shouldCommit()) return;
+    event.characters = characters;
+    event.tokens = tokens;
+    event.commit();
+  }
+
+  public static Object beginParse() {
+    Counters.register();
+    ParseEvent event = new ParseEvent();
+    event.begin();
+    return event;
+  }
+
+  public static void commitParse(Object begun, int statements, boolean failed) {
+    ParseEvent event = (ParseEvent)begun;
+    if (!event.shouldCommit()) return;
+    event.statements = statements;
+    event.failed = failed;
+    event.commit();
+  }
+
+  public static Object beginExecute() {
+    Counters.register();
+    ExecuteEvent event = new ExecuteEvent();
+    event.begin();
+    return event;
+  }
+
+  public static void commitExecute(Object begun, int statements, long executed, boolean failed) {
+    ExecuteEvent event = (ExecuteEvent)begun;
+    if (!event.shouldCommit()) return;
+    event.statements = statements;
+    event.executed = executed;
+    event.failed = failed;
+    event.commit();
+  }
+}
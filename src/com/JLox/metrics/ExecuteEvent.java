@@ -0,0 +1,21 @@
+package com.JLox.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("jlox.Execute")
+@Label("Execute")
+@Category("JLox")
+@Description("Running a parsed program in the tree-walking interpreter")
+public final class ExecuteEvent extends jdk.jfr.Event {
+  @Label("Top-level Statements")
+  public int statements;
+
+  @Label("Statements Executed")
+  public long executed;
+
+  @Label("Runtime Error")
+  public boolean failed;
+}
@@ -0,0 +1,74 @@
+package com.JLox.metrics;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide runtime counters, summed over every interpreter. The interpreter
+// counts in plain fields of its own and adds them here once per top-level
+// statement, so the hot path never touches shared memory; the totals are LongAdders
+// so interpreters on many threads add without contending.
+public final class Metrics {
+  private static final LongAdder statements = new LongAdder();
+  private static final LongAdder environments = new LongAdder();
+  private static final LongAdder hops = new LongAdder();
+  private static final LongAdder slotLookups = new LongAdder();
+  private static final LongAdder globalLookups = new LongAdder();
+  private static final LongAdder runtimeErrors = new LongAdder();
+
+  private Metrics() {}
+
+  public static void add(long statementsExecuted, long environmentsCreated, long environmentHops) {
+    if (statementsExecuted != 0) statements.add(statementsExecuted);
+    if (environmentsCreated != 0) environments.add(environmentsCreated);
+    if (environmentHops != 0) hops.add(environmentHops);
+  }
+
+  public static void addLookups(long bySlot, long byName) {
+    if (bySlot != 0) slotLookups.add(bySlot);
+    if (byName != 0) globalLookups.add(byName);
+  }
+
+  public static void runtimeError() {
+    runtimeErrors.increment();
+  }
+
+  // statements run by the tree-walking interpreter; loops handed to the loop
+  // compiler count as the one while statement
+  public static long statementsExecuted() {
+    return statements.sum();
+  }
+
+  public static long environmentsCreated() {
+    return environments.sum();
+  }
+
+  // enclosing scopes walked to reach local variables: 0 for a slot in the
+  // current frame, which every local is now that nested blocks share the frame
+  // of their outermost block (see Resolver)
+  public static long environmentHops() {
+    return hops.sum();
+  }
+
+  // Variable reads and writes that went straight to the slot the resolver gave
+  // the variable, without walking or searching any scope.
+  public static long slotLookups() {
+    return slotLookups.sum();
+  }
+
+  // Reads and writes of globals, which are found by the name's symbol id.
+  public static long globalLookups() {
+    return globalLookups.sum();
+  }
+
+  public static long runtimeErrors() {
+    return runtimeErrors.sum();
+  }
+
+  public static void dump(PrintStream out) {
+    out.println("[metrics] statements executed: " + statementsExecuted());
+    out.println("[metrics] environments created: " + environmentsCreated());
+    out.println("[metrics] environment hops: " + environmentHops());
+    out.println("[metrics] variable lookups: " + slotLookups() + " local, " + globalLookups() + " global");
+    out.println("[metrics] runtime errors: " + runtimeErrors());
+  }
+}
@@ -0,0 +1,18 @@
+package com.JLox.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("jlox.Parse")
+@Label("Parse")
+@Category("JLox")
+@Description("Parsing a whole script")
+public final class ParseEvent extends jdk.jfr.Event {
+  @Label("Top-level Statements")
+  public int statements;
+
+  @Label("Had Errors")
+  public boolean failed;
+}
@@ -0,0 +1,18 @@
+package com.JLox.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("jlox.Scan")
+@Label("Scan")
+@Category("JLox")
+@Description("Scanning a whole script into tokens")
+public final class ScanEvent extends jdk.jfr.Event {
+  @Label("Characters")
+  public int characters;
+
+  @Label("Tokens")
+  public int tokens;
+}
@@ -0,0 +1,231 @@
+package com.JLox.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.JLox.parser.Expr;
+import com.JLox.parser.Stmt;
+import static com.JLox.interpreter.Values.*;
+import static com.JLox.scanner.TokenType.*;
+
+// Optional pass over the parsed program that folds constant expressions and
+// drops code that can never run or has no effect. Anything that would raise a
+// runtime error (e.g. -"a" or 1 < nil) is left alone so the error still
+// happens, with the same message and line, when the program runs.
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  // Part of the AstCache key: bump whenever a change makes the optimizer build a
+  // different tree, so programs it optimized before are not reused.
+  public static final int Version = 1;
+
+  private int nodesBefore = 0;
+  private int nodesAfter = 0;
+
+  public List<Stmt> optimize(List<Stmt> statements) {
+    NodeCounter counter = new NodeCounter();
+    nodesBefore += counter.count(statements);
+
+    List<Stmt> optimized = optimizeAll(statements);
+
+    nodesAfter += counter.count(optimized);
+    return optimized;
+  }
+
+  public int nodesBefore() {
+    return nodesBefore;
+  }
+
+  public int nodesRemoved() {
+    return nodesBefore - nodesAfter;
+  }
+
+  private List<Stmt> optimizeAll(List<Stmt> statements) {
+    List<Stmt> result = new ArrayList<>(statements.size());
+    for (Stmt statement : statements) {
+      Stmt optimized = optimize(statement);
+      if (optimized != null) result.add(optimized);
+    }
+    return result;
+  }
+
+  // returns null when the statement can be removed
+  private Stmt optimize(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Expr optimize(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private Stmt orEmpty(Stmt stmt, Stmt parent) {
+    return stmt != null ? stmt : at(parent, new Stmt.Block(new ArrayList<>()));
+  }
+
+  // a rewritten statement keeps the line of the one it replaces
+  private static Stmt at(Stmt original, Stmt replacement) {
+    replacement.line = original.line;
+    return replacement;
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    List<Stmt> statements = optimizeAll(stmt.statements);
+    if (statements.isEmpty()) return null;
+    return at(stmt, new Stmt.Block(statements));
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = optimize(stmt.expression);
+    if (expression instanceof Expr.Literal) return null;
+    if (expression == stmt.expression) return stmt;
+    return at(stmt, new Stmt.Expression(expression));
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = optimize(stmt.condition);
+    Stmt thenBranch = optimize(stmt.thenBranch);
+    Stmt elseBranch = stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+
+    if (condition instanceof Expr.Literal) {
+      return isTruthy(((Expr.Literal)condition).value) ? thenBranch : elseBranch;
+    }
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+      return stmt;
+    }
+    return at(stmt, new Stmt.If(condition, orEmpty(thenBranch, stmt), elseBranch));
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    Expr expression = optimize(stmt.expression);
+    if (expression == stmt.expression) return stmt;
+    return at(stmt, new Stmt.Print(expression));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer == null) return stmt;
+
+    Expr initializer = optimize(stmt.initializer);
+    if (initializer == stmt.initializer) return stmt;
+    return at(stmt, new Stmt.Var(stmt.name, initializer));
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr condition = optimize(stmt.condition);
+    if (condition instanceof Expr.Literal && !isTruthy(((Expr.Literal)condition).value)) {
+      return null;
+    }
+
+    Stmt body = optimize(stmt.body);
+    if (condition == stmt.condition && body == stmt.body) return stmt;
+    return at(stmt, new Stmt.While(condition, orEmpty(body, stmt)));
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = optimize(expr.value);
+    if (value == expr.value) return expr;
+    return new Expr.Assign(expr.name, value);
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+
+    if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+      Object a = ((Expr.Literal)left).value;
+      Object b = ((Expr.Literal)right).value;
+      boolean numbers = a instanceof Double && b instanceof Double;
+
+      switch (expr.operator.type) {
+        case Plus:
+          if (a instanceof String || b instanceof String) {
+            return new Expr.Literal(stringify(a) + stringify(b));
+          }
+          if (numbers) return new Expr.Literal((double)a + (double)b);
+          break;
+        case Minus:
+          if (numbers) return new Expr.Literal((double)a - (double)b);
+          break;
+        case Star:
+          if (numbers) return new Expr.Literal((double)a * (double)b);
+          break;
+        case Slash:
+          if (numbers) return new Expr.Literal((double)a / (double)b);
+          break;
+        case Greater:
+          if (numbers) return new Expr.Literal((double)a > (double)b);
+          break;
+        case GreaterEqual:
+          if (numbers) return new Expr.Literal((double)a >= (double)b);
+          break;
+        case Less:
+          if (numbers) return new Expr.Literal((double)a < (double)b);
+          break;
+        case LessEqual:
+          if (numbers) return new Expr.Literal((double)a <= (double)b);
+          break;
+        case EqualEqual:
+          return new Expr.Literal(isEqual(a, b));
+        case BangEqual:
+          return new Expr.Literal(!isEqual(a, b));
+        default:
+          break;
+      }
+    }
+
+    if (left == expr.left && right == expr.right) return expr;
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    // grouping only matters to the parser, the tree already encodes the precedence
+    return optimize(expr.expression);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+
+    if (left instanceof Expr.Literal) {
+      boolean truthy = isTruthy(((Expr.Literal)left).value);
+      if (expr.operator.type == Or) return truthy ? left : right;
+      return truthy ? right : left;
+    }
+
+    if (left == expr.left && right == expr.right) return expr;
+    return new Expr.Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr right = optimize(expr.right);
+
+    if (right instanceof Expr.Literal) {
+      Object value = ((Expr.Literal)right).value;
+      if (expr.operator.type == Bang) return new Expr.Literal(!isTruthy(value));
+      if (expr.operator.type == Minus && value instanceof Double) {
+        return new Expr.Literal(-(double)value);
+      }
+    }
+
+    if (right == expr.right) return expr;
+    return new Expr.Unary(expr.operator, right);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+}
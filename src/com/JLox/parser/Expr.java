@@ -27,6 +27,10 @@ public abstract class Expr {
 
     public final Token name;
     public final Expr value;
+
+    public int depth = -1;
+    public int slot = -1;
+    public int fused;
   }
 
  public static class Binary extends Expr {
@@ -44,6 +48,9 @@ public abstract class Expr {
     public final Expr left;
     public final Token operator;
     public final Expr right;
+
+    public int state;
+    public int operands;
   }
 
  public static class Grouping extends Expr {
@@ -102,6 +109,8 @@ public abstract class Expr {
 
     public final Token operator;
     public final Expr right;
+
+    public int state;
   }
 
  public static class Variable extends Expr {
@@ -115,6 +124,9 @@ public abstract class Expr {
     }
 
     public final Token name;
+
+    public int depth = -1;
+    public int slot = -1;
   }
 
   public abstract <R> R accept(Visitor<R> visitor);
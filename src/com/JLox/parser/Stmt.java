@@ -13,6 +13,8 @@ public abstract class Stmt {
     R visitWhileStmt(While stmt);
   }
 
+  public int line;
+
  public static class Block extends Stmt {
     public Block(List<Stmt> statements) {
      this.statements = statements;
@@ -24,6 +26,8 @@ public abstract class Stmt {
     }
 
     public final List<Stmt> statements;
+
+    public int slots;
   }
 
  public static class Expression extends Stmt {
@@ -82,6 +86,8 @@ public abstract class Stmt {
 
     public final Token name;
     public final Expr initializer;
+
+    public int slot = -1;
   }
 
  public static class While extends Stmt {
@@ -97,6 +103,9 @@ public abstract class Stmt {
 
     public final Expr condition;
     public final Stmt body;
+
+    public int backedges;
+    public Object compiled;
   }
 
   public abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,157 @@
+package com.JLox.profiler;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.JLox.parser.Stmt;
+
+// Reads a StatementMarker from a background thread at a fixed interval and counts
+// how often each statement was the one executing. JLox has no functions, so the
+// statements around it (the "stack") follow from the syntax tree and are only
+// worked out for the report; the interpreter pays for two stores per statement.
+//
+// Results come as collapsed stacks, one "script;while:3;print:5 12" line per
+// stack, which flamegraph.pl and speedscope read, and as a table of the time each
+// source line spent itself (innermost) and in total (anywhere on the stack).
+public final class Profiler {
+  private final StatementMarker marker;
+  private final long intervalNanos;
+  private final Map<Stmt, int[]> samples = new IdentityHashMap<>();
+  // enclosing statement of every statement in the programs added
+  private final Map<Stmt, Stmt> parents = new IdentityHashMap<>();
+  private volatile boolean running = false;
+  private Thread thread;
+
+  public Profiler(StatementMarker marker, long interval, TimeUnit unit) {
+    this.marker = marker;
+    this.intervalNanos = unit.toNanos(interval);
+  }
+
+  public void start() {
+    running = true;
+    thread = new Thread(this::sample, "jlox-profiler");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // Stops sampling; the results are complete once this returns.
+  public void stop() {
+    running = false;
+    LockSupport.unpark(thread);
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Called with the statements before they run, so samples in them get a stack.
+  public void add(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      addChildren(statement);
+    }
+  }
+
+  private void addChildren(Stmt stmt) {
+    if (stmt instanceof Stmt.Block) {
+      for (Stmt statement : ((Stmt.Block)stmt).statements) addChild(stmt, statement);
+    } else if (stmt instanceof Stmt.If) {
+      addChild(stmt, ((Stmt.If)stmt).thenBranch);
+      addChild(stmt, ((Stmt.If)stmt).elseBranch);
+    } else if (stmt instanceof Stmt.While) {
+      addChild(stmt, ((Stmt.While)stmt).body);
+    }
+  }
+
+  private void addChild(Stmt parent, Stmt child) {
+    if (child == null) return;
+    parents.put(child, parent);
+    addChildren(child);
+  }
+
+  private void sample() {
+    while (running) {
+      LockSupport.parkNanos(intervalNanos);
+      Stmt current = marker.sample();
+      // idle: scanning, parsing or already done
+      if (current == null) continue;
+      samples.computeIfAbsent(current, stmt -> new int[1])[0]++;
+    }
+  }
+
+  // outermost first; blocks only repeat the line of the statement around them,
+  // so they are left out unless there is nothing around them
+  private List<Stmt> stack(Stmt stmt) {
+    List<Stmt> stack = new ArrayList<>();
+    for (Stmt frame = stmt; frame != null; frame = parents.get(frame)) {
+      if (!(frame instanceof Stmt.Block)) stack.add(0, frame);
+    }
+    if (stack.isEmpty()) stack.add(stmt);
+    return stack;
+  }
+
+  public void writeCollapsed(PrintWriter out, String root) {
+    Map<String, Integer> stacks = new TreeMap<>();
+    for (Map.Entry<Stmt, int[]> entry : samples.entrySet()) {
+      StringBuilder name = new StringBuilder(root);
+      for (Stmt stmt : stack(entry.getKey())) {
+        name.append(';').append(kind(stmt)).append(':').append(stmt.line);
+      }
+      stacks.merge(name.toString(), entry.getValue()[0], Integer::sum);
+    }
+    for (Map.Entry<String, Integer> entry : stacks.entrySet()) {
+      out.println(entry.getKey() + " " + entry.getValue());
+    }
+    out.flush();
+  }
+
+  // 'source' may be null; otherwise each line of the table shows the code.
+  public void writeTable(PrintStream out, String[] source) {
+    Map<Integer, int[]> lines = new TreeMap<>();
+    int total = 0;
+    for (Map.Entry<Stmt, int[]> entry : samples.entrySet()) {
+      int count = entry.getValue()[0];
+      total += count;
+
+      List<Stmt> stack = stack(entry.getKey());
+      List<Integer> seen = new ArrayList<>();
+      for (Stmt stmt : stack) {
+        // a line counts once per sample however often it is on the stack
+        if (seen.contains(stmt.line)) continue;
+        seen.add(stmt.line);
+        lines.computeIfAbsent(stmt.line, line -> new int[2])[1] += count;
+      }
+      lines.get(stack.get(stack.size() - 1).line)[0] += count;
+    }
+
+    out.printf("[profile] %d samples every %.1f ms%n", total, intervalNanos / 1e6);
+    if (total == 0) return;
+    out.println("[profile]   line   self  total");
+    List<Map.Entry<Integer, int[]>> rows = new ArrayList<>(lines.entrySet());
+    rows.sort((a, b) -> a.getValue()[0] != b.getValue()[0]
+        ? Integer.compare(b.getValue()[0], a.getValue()[0])
+        : Integer.compare(b.getValue()[1], a.getValue()[1]));
+    for (Map.Entry<Integer, int[]> row : rows) {
+      int line = row.getKey();
+      String code = source != null && line >= 1 && line <= source.length ? "  " + source[line - 1].trim() : "";
+      out.printf("[profile] %6d %5.1f%% %5.1f%%%s%n", line,
+          100.0 * row.getValue()[0] / total, 100.0 * row.getValue()[1] / total, code);
+    }
+  }
+
+  private static String kind(Stmt stmt) {
+    if (stmt instanceof Stmt.Expression) return "expr";
+    if (stmt instanceof Stmt.If) return "if";
+    if (stmt instanceof Stmt.Print) return "print";
+    if (stmt instanceof Stmt.Var) return "var";
+    if (stmt instanceof Stmt.While) return "while";
+    return "block";
+  }
+}
@@ -0,0 +1,37 @@
+package com.JLox.profiler;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import com.JLox.parser.Stmt;
+
+// The statement the interpreter is executing, read by the Profiler's thread. It
+// is written around every statement, so it is one field updated with opaque
+// stores: as cheap as plain stores, but the JIT may not drop them and the
+// sampler's opaque loads are bound to see them.
+public final class StatementMarker {
+  private static final VarHandle Current;
+
+  static {
+    try {
+      Current = MethodHandles.lookup().findVarHandle(StatementMarker.class, "current", Stmt.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private Stmt current = null;
+
+  // only on the interpreter's thread
+  public Stmt get() {
+    return current;
+  }
+
+  public void set(Stmt stmt) {
+    Current.setOpaque(this, stmt);
+  }
+
+  Stmt sample() {
+    return (Stmt)Current.getOpaque(this);
+  }
+}
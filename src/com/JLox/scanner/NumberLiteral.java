@@ -0,0 +1,35 @@
+package com.JLox.scanner;
+
+// Converts a number literal (digits, optionally a point and more digits) straight
+// from the source characters. When the digits without the point fit in 2^53 and
+// there are at most 22 decimals, both the digits and the power of ten are exact
+// doubles and one division rounds correctly (Clinger's fast path), so the result
+// is the same as Double.parseDouble's. Longer literals take Double.parseDouble.
+public final class NumberLiteral {
+  private static final long MaxExact = 1L << 53;
+  private static final double[] Powers = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+    1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private NumberLiteral() {}
+
+  public static double parse(char[] chars, int start, int length) {
+    long digits = 0;
+    int decimals = -1;
+    for (int i = start; i < start + length; i++) {
+      char c = chars[i];
+      if (c == '.') {
+        decimals = 0;
+        continue;
+      }
+      digits = digits * 10 + (c - '0');
+      if (digits >= MaxExact) return Double.parseDouble(new String(chars, start, length));
+      if (decimals >= 0) decimals++;
+    }
+
+    if (decimals <= 0) return digits;
+    if (decimals >= Powers.length) return Double.parseDouble(new String(chars, start, length));
+    return digits / Powers[decimals];
+  }
+}
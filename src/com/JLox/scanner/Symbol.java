@@ -0,0 +1,148 @@
+package com.JLox.scanner;
+
+import static com.JLox.scanner.TokenType.*;
+
+// An interned identifier. The scanner looks every name up here straight from the
+// source characters, so all occurrences of a name share one Symbol: names compare
+// by identity, hash with the precomputed hash and index tables by their id.
+// Keywords are in the same table and know the token type they stand for.
+public final class Symbol {
+  private static volatile Symbol[] table = new Symbol[1024];
+  private static int count = 0;
+
+  static {
+    keyword("and", And);
+    keyword("class", Class);
+    keyword("else", Else);
+    keyword("false", False);
+    keyword("for", For);
+    keyword("fun", Fun);
+    keyword("if", If);
+    keyword("nil", Nil);
+    keyword("or", Or);
+    keyword("print", Print);
+    keyword("return", Return);
+    keyword("super", Super);
+    keyword("this", This);
+    keyword("true", True);
+    keyword("var", Var);
+    keyword("while", While);
+  }
+
+  public final String name;
+  // dense, starting at 0, in the order names were first seen
+  public final int id;
+  private final int hash;
+  private final TokenType type;
+
+  private Symbol(String name, int id, int hash, TokenType type) {
+    this.name = name;
+    this.id = id;
+    this.hash = hash;
+    this.type = type;
+  }
+
+  // Identifier, or the keyword this name is reserved for.
+  public TokenType type() {
+    return type;
+  }
+
+  public static Symbol intern(String name) {
+    char[] chars = name.toCharArray();
+    return intern(chars, 0, chars.length);
+  }
+
+  public static Symbol intern(char[] chars, int start, int length) {
+    // same hash as String.hashCode
+    int hash = 0;
+    for (int i = start; i < start + length; i++) {
+      hash = 31 * hash + chars[i];
+    }
+
+    // Names seen before are found without the lock, which matters when several
+    // scanners run in parallel. Symbols are immutable, so a racing insert or
+    // resize can only make this miss, and the locked lookup tries again.
+    Symbol[] table = Symbol.table;
+    int mask = table.length - 1;
+    for (int index = spread(hash) & mask; ; index = (index + 1) & mask) {
+      Symbol symbol = table[index];
+      if (symbol == null) break;
+      if (symbol.hash == hash && matches(symbol.name, chars, start, length)) return symbol;
+    }
+    return intern(chars, start, length, hash);
+  }
+
+  private static synchronized Symbol intern(char[] chars, int start, int length, int hash) {
+    int mask = table.length - 1;
+    for (int index = spread(hash) & mask; ; index = (index + 1) & mask) {
+      Symbol symbol = table[index];
+      if (symbol == null) {
+        return add(new Symbol(new String(chars, start, length), count, hash, Identifier), index);
+      }
+      if (symbol.hash == hash && matches(symbol.name, chars, start, length)) return symbol;
+    }
+  }
+
+  // The token's symbol; tokens made outside the scanner may not have one.
+  public static Symbol of(Token token) {
+    return token.symbol != null ? token.symbol : intern(token.lexeme);
+  }
+
+  public static synchronized int count() {
+    return count;
+  }
+
+  private static void keyword(String name, TokenType type) {
+    int hash = name.hashCode();
+    int mask = table.length - 1;
+    int index = spread(hash) & mask;
+    while (table[index] != null) {
+      index = (index + 1) & mask;
+    }
+    add(new Symbol(name, count, hash, type), index);
+  }
+
+  private static Symbol add(Symbol symbol, int index) {
+    table[index] = symbol;
+    count++;
+    // keep the open-addressing table at most half full
+    if (count * 2 > table.length) {
+      // filled before it is published, for the lookups that do not lock
+      Symbol[] old = table;
+      Symbol[] grown = new Symbol[old.length * 2];
+      int mask = grown.length - 1;
+      for (Symbol entry : old) {
+        if (entry == null) continue;
+        int slot = spread(entry.hash) & mask;
+        while (grown[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        grown[slot] = entry;
+      }
+      table = grown;
+    }
+    return symbol;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean matches(String name, char[] chars, int start, int length) {
+    if (name.length() != length) return false;
+    for (int i = 0; i < length; i++) {
+      if (name.charAt(i) != chars[start + i]) return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -5,12 +5,23 @@ public class Token {
   public final String lexeme;
   public final Object literal;
   public final int line;
+  // interned name of an identifier, null for other tokens
+  public final Symbol symbol;
 
   public Token(TokenType type, String lexeme, Object literal, int line) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.symbol = null;
+  }
+
+  public Token(Symbol symbol, int line) {
+    this.type = TokenType.Identifier;
+    this.lexeme = symbol.name;
+    this.literal = null;
+    this.line = line;
+    this.symbol = symbol;
   }
 
   public String toString() {
@@ -0,0 +1,85 @@
+package com.JLox.scanner;
+
+import java.util.Arrays;
+
+// Compact token stream: one entry per token in parallel int arrays instead of a
+// Token object each. Lexemes and literal values are only built from the source
+// characters when somebody asks for them, and token(i) creates a Token for the
+// places (AST nodes, error messages) that need one. Identifiers keep the Symbol
+// the scanner interned them to.
+public final class TokenBuffer {
+  private static final TokenType[] Types = TokenType.values();
+
+  private final char[] source;
+  private int[] types;
+  private int[] starts;
+  private int[] lengths;
+  private int[] lines;
+  private Symbol[] symbols;
+  private int count = 0;
+
+  public TokenBuffer(char[] source, int capacity) {
+    this.source = source;
+    capacity = Math.max(capacity, 16);
+    types = new int[capacity];
+    starts = new int[capacity];
+    lengths = new int[capacity];
+    lines = new int[capacity];
+    symbols = new Symbol[capacity];
+  }
+
+  public void add(TokenType type, int start, int length, int line) {
+    add(type, start, length, line, null);
+  }
+
+  public void add(TokenType type, int start, int length, int line, Symbol symbol) {
+    if (count == types.length) {
+      int capacity = count * 2;
+      types = Arrays.copyOf(types, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+      symbols = Arrays.copyOf(symbols, capacity);
+    }
+    types[count] = type.ordinal();
+    starts[count] = start;
+    lengths[count] = length;
+    lines[count] = line;
+    symbols[count] = symbol;
+    count++;
+  }
+
+  public int size() {
+    return count;
+  }
+
+  public TokenType type(int index) {
+    return Types[types[index]];
+  }
+
+  public int line(int index) {
+    return lines[index];
+  }
+
+  public String lexeme(int index) {
+    if (symbols[index] != null) return symbols[index].name;
+    return new String(source, starts[index], lengths[index]);
+  }
+
+  public Object literal(int index) {
+    switch (type(index)) {
+      case Number:
+        return NumberLiteral.parse(source, starts[index], lengths[index]);
+      case String:
+        // without the surrounding quotes
+        return new String(source, starts[index] + 1, lengths[index] - 2);
+      default:
+        return null;
+    }
+  }
+
+  public Token token(int index) {
+    if (symbols[index] != null) return new Token(symbols[index], lines[index]);
+    return new Token(type(index), lexeme(index), literal(index), lines[index]);
+  }
+}
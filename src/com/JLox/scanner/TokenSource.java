@@ -0,0 +1,7 @@
+package com.JLox.scanner;
+
+// Anything the Parser can pull tokens from, one at a time. After the last
+// token, next() keeps returning an Eof token.
+public interface TokenSource {
+  Token next();
+}
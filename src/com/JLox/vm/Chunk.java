@@ -0,0 +1,40 @@
+package com.JLox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compiled program: flat bytecode, the source line of every byte and a constant pool.
+public class Chunk {
+  byte[] code = new byte[256];
+  int[] lines = new int[256];
+  int count = 0;
+  final List<Object> constants = new ArrayList<>();
+  private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+  void write(int b, int line) {
+    if (count == code.length) {
+      code = Arrays.copyOf(code, count * 2);
+      lines = Arrays.copyOf(lines, count * 2);
+    }
+    code[count] = (byte)b;
+    lines[count] = line;
+    count++;
+  }
+
+  // equal constants (names, repeated literals) share one pool entry
+  int addConstant(Object value) {
+    Integer index = constantIndex.get(value);
+    if (index != null) return index;
+
+    constants.add(value);
+    constantIndex.put(value, constants.size() - 1);
+    return constants.size() - 1;
+  }
+
+  public int size() {
+    return count;
+  }
+}
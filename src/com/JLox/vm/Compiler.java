@@ -0,0 +1,315 @@
+package com.JLox.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.JLox.parser.Expr;
+import com.JLox.parser.Stmt;
+import com.JLox.scanner.Symbol;
+import com.JLox.scanner.Token;
+import static com.JLox.scanner.TokenType.*;
+
+// Compiles the statements produced by the Parser into a single Chunk.
+// Locals live in VM stack slots, globals are looked up by name like in the Interpreter.
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  public static class CompileError extends RuntimeException {
+    public final int line;
+
+    CompileError(int line, String message) {
+      super(message);
+      this.line = line;
+    }
+  }
+
+  private static class Local {
+    final Symbol name;
+    final int depth;
+
+    Local(Symbol name, int depth) {
+      this.name = name;
+      this.depth = depth;
+    }
+  }
+
+  private final Chunk chunk = new Chunk();
+  private final List<Local> locals = new ArrayList<>();
+  private int scopeDepth = 0;
+  // line of the statement being compiled, for instructions without a token of their own
+  private int line = 1;
+
+  public Chunk compile(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      compile(statement);
+    }
+    return chunk;
+  }
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    scopeDepth++;
+    for (Stmt statement : stmt.statements) {
+      compile(statement);
+    }
+    scopeDepth--;
+
+    int popped = 0;
+    while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > scopeDepth) {
+      locals.remove(locals.size() - 1);
+      popped++;
+    }
+    if (popped == 1) {
+      emit(OpCode.Pop);
+    } else if (popped > 1) {
+      emit(OpCode.PopN);
+      emitShort(popped);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    emit(OpCode.Pop);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    compile(stmt.condition);
+    int thenJump = emitJump(OpCode.JumpIfFalse);
+    emit(OpCode.Pop);
+    compile(stmt.thenBranch);
+
+    int elseJump = emitJump(OpCode.Jump);
+    patchJump(thenJump);
+    emit(OpCode.Pop);
+    if (stmt.elseBranch != null) compile(stmt.elseBranch);
+    patchJump(elseJump);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.expression);
+    emit(OpCode.Print);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    line = stmt.name.line;
+    if (stmt.initializer != null) {
+      compile(stmt.initializer);
+    } else {
+      emit(OpCode.Nil);
+    }
+
+    if (scopeDepth == 0) {
+      emit(OpCode.DefineGlobal);
+      emitShort(nameConstant(stmt.name));
+      return null;
+    }
+
+    // Redeclaring a name in the same block overwrites the existing slot.
+    int slot = resolveLocal(Symbol.of(stmt.name));
+    if (slot >= 0 && locals.get(slot).depth == scopeDepth) {
+      emit(OpCode.SetLocal);
+      emitShort(slot);
+      emit(OpCode.Pop);
+      return null;
+    }
+
+    if (locals.size() > 0xffff) {
+      throw new CompileError(line, "Too many local variables.");
+    }
+    // the initializer's value stays on the stack and becomes the local's slot
+    locals.add(new Local(Symbol.of(stmt.name), scopeDepth));
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int loopStart = chunk.count;
+    compile(stmt.condition);
+
+    int exitJump = emitJump(OpCode.JumpIfFalse);
+    emit(OpCode.Pop);
+    compile(stmt.body);
+    emitLoop(loopStart);
+
+    patchJump(exitJump);
+    emit(OpCode.Pop);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.value);
+    line = expr.name.line;
+
+    int slot = resolveLocal(Symbol.of(expr.name));
+    if (slot >= 0) {
+      emit(OpCode.SetLocal);
+      emitShort(slot);
+    } else {
+      emit(OpCode.SetGlobal);
+      emitShort(nameConstant(expr.name));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    compile(expr.left);
+    compile(expr.right);
+    line = expr.operator.line;
+
+    switch (expr.operator.type) {
+      case BangEqual:    emit(OpCode.NotEqual); break;
+      case EqualEqual:   emit(OpCode.Equal); break;
+      case Greater:      emit(OpCode.Greater); break;
+      case GreaterEqual: emit(OpCode.GreaterEqual); break;
+      case Less:         emit(OpCode.Less); break;
+      case LessEqual:    emit(OpCode.LessEqual); break;
+      case Plus:         emit(OpCode.Add); break;
+      case Minus:        emit(OpCode.Subtract); break;
+      case Star:         emit(OpCode.Multiply); break;
+      case Slash:        emit(OpCode.Divide); break;
+      default:
+        // Unreachable
+        break;
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      emit(OpCode.Nil);
+    } else if (expr.value instanceof Boolean) {
+      emit((boolean)expr.value ? OpCode.True : OpCode.False);
+    } else {
+      emit(OpCode.Constant);
+      emitShort(constant(expr.value));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    compile(expr.left);
+    line = expr.operator.line;
+
+    if (expr.operator.type == Or) {
+      int elseJump = emitJump(OpCode.JumpIfFalse);
+      int endJump = emitJump(OpCode.Jump);
+      patchJump(elseJump);
+      emit(OpCode.Pop);
+      compile(expr.right);
+      patchJump(endJump);
+    } else {
+      int endJump = emitJump(OpCode.JumpIfFalse);
+      emit(OpCode.Pop);
+      compile(expr.right);
+      patchJump(endJump);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    compile(expr.right);
+    line = expr.operator.line;
+
+    switch (expr.operator.type) {
+      case Bang:  emit(OpCode.Not); break;
+      case Minus: emit(OpCode.Negate); break;
+      default:
+        // Unreachable
+        break;
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    line = expr.name.line;
+
+    int slot = resolveLocal(Symbol.of(expr.name));
+    if (slot >= 0) {
+      emit(OpCode.GetLocal);
+      emitShort(slot);
+    } else {
+      emit(OpCode.GetGlobal);
+      emitShort(nameConstant(expr.name));
+    }
+    return null;
+  }
+
+  private int resolveLocal(Symbol name) {
+    for (int i = locals.size() - 1; i >= 0; i--) {
+      if (locals.get(i).name == name) return i;
+    }
+    return -1;
+  }
+
+  private int nameConstant(Token name) {
+    return constant(Symbol.of(name));
+  }
+
+  private int constant(Object value) {
+    int index = chunk.addConstant(value);
+    if (index > 0xffff) {
+      throw new CompileError(line, "Too many constants in one chunk.");
+    }
+    return index;
+  }
+
+  private void emit(byte op) {
+    chunk.write(op, line);
+  }
+
+  private void emitShort(int value) {
+    chunk.write((value >> 8) & 0xff, line);
+    chunk.write(value & 0xff, line);
+  }
+
+  private int emitJump(byte op) {
+    emit(op);
+    emitShort(0xffff);
+    return chunk.count - 2;
+  }
+
+  private void patchJump(int offset) {
+    // -2 to adjust for the bytecode for the jump offset itself
+    int jump = chunk.count - offset - 2;
+    if (jump > 0xffff) {
+      throw new CompileError(line, "Too much code to jump over.");
+    }
+    chunk.code[offset] = (byte)((jump >> 8) & 0xff);
+    chunk.code[offset + 1] = (byte)(jump & 0xff);
+  }
+
+  private void emitLoop(int loopStart) {
+    emit(OpCode.Loop);
+    int offset = chunk.count - loopStart + 2;
+    if (offset > 0xffff) {
+      throw new CompileError(line, "Loop body too large.");
+    }
+    emitShort(offset);
+  }
+}
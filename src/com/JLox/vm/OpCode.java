@@ -0,0 +1,35 @@
+package com.JLox.vm;
+
+// Instruction set of the bytecode VM. Operands follow the opcode inline:
+// constant and name indexes are u16, local slots are u16, jumps are u16 offsets.
+public final class OpCode {
+  private OpCode() {}
+
+  public static final byte Constant      = 0;
+  public static final byte Nil           = 1;
+  public static final byte True          = 2;
+  public static final byte False         = 3;
+  public static final byte Pop           = 4;
+  public static final byte GetLocal      = 5;
+  public static final byte SetLocal      = 6;
+  public static final byte GetGlobal     = 7;
+  public static final byte DefineGlobal  = 8;
+  public static final byte SetGlobal     = 9;
+  public static final byte Equal         = 10;
+  public static final byte NotEqual      = 11;
+  public static final byte Greater       = 12;
+  public static final byte GreaterEqual  = 13;
+  public static final byte Less          = 14;
+  public static final byte LessEqual     = 15;
+  public static final byte Add           = 16;
+  public static final byte Subtract      = 17;
+  public static final byte Multiply      = 18;
+  public static final byte Divide        = 19;
+  public static final byte Not           = 20;
+  public static final byte Negate        = 21;
+  public static final byte Print         = 22;
+  public static final byte Jump          = 23;
+  public static final byte JumpIfFalse   = 24;
+  public static final byte Loop          = 25;
+  public static final byte PopN          = 26;
+}
@@ -0,0 +1,269 @@
+package com.JLox.vm;
+
+import java.util.Arrays;
+
+import com.JLox.interpreter.ChannelSink;
+import com.JLox.interpreter.GlobalTable;
+import com.JLox.interpreter.Limits;
+import com.JLox.interpreter.LoxString;
+import com.JLox.interpreter.OutputSink;
+import com.JLox.metrics.Metrics;
+import com.JLox.scanner.Symbol;
+import com.JLox.scanner.Token;
+import com.JLox.scanner.TokenType;
+import com.tool.RuntimeError;
+import static com.JLox.interpreter.Values.*;
+
+// Stack machine that runs a Chunk. Globals survive between interpret() calls so the
+// REPL behaves the same as with the tree-walking Interpreter.
+public class VM {
+  private final GlobalTable globals = new GlobalTable();
+  private Object[] stack = new Object[256];
+  private int stackTop = 0;
+
+  private final OutputSink out;
+
+  private Chunk chunk;
+  private int ip;
+  // fuel, deadline and memory quota, checked at loop back edges; see Interpreter
+  private Limits limits = null;
+  private Limits.Meter meter = null;
+  private long steps = Long.MAX_VALUE;
+
+  public VM() {
+    this(ChannelSink.stdout());
+  }
+
+  public VM(OutputSink out) {
+    this.out = out;
+  }
+
+  // applies to each interpret() call from now on
+  public void setLimits(Limits limits) {
+    this.limits = limits;
+  }
+
+  public void interpret(Chunk chunk) {
+    this.chunk = chunk;
+    this.ip = 0;
+    if (limits != null) {
+      meter = limits.start();
+      steps = meter.first();
+    } else {
+      meter = null;
+      steps = Long.MAX_VALUE;
+    }
+    try {
+      run();
+    } catch (RuntimeError error) {
+      Metrics.runtimeError();
+      throw error;
+    } finally {
+      // drop references so a failed run does not keep values alive
+      Arrays.fill(stack, 0, stackTop, null);
+      stackTop = 0;
+    }
+  }
+
+  private void run() {
+    final byte[] code = chunk.code;
+    final Object[] constants = chunk.constants.toArray();
+    final int end = chunk.count;
+
+    while (ip < end) {
+      byte instruction = code[ip++];
+      switch (instruction) {
+        case OpCode.Constant:
+          push(constants[readShort(code)]);
+          break;
+        case OpCode.Nil:
+          push(null);
+          break;
+        case OpCode.True:
+          push(Boolean.TRUE);
+          break;
+        case OpCode.False:
+          push(Boolean.FALSE);
+          break;
+        case OpCode.Pop:
+          stack[--stackTop] = null;
+          break;
+        case OpCode.PopN: {
+          int n = readShort(code);
+          Arrays.fill(stack, stackTop - n, stackTop, null);
+          stackTop -= n;
+          break;
+        }
+        case OpCode.GetLocal:
+          push(stack[readShort(code)]);
+          break;
+        case OpCode.SetLocal:
+          stack[readShort(code)] = stack[stackTop - 1];
+          break;
+        case OpCode.GetGlobal: {
+          Symbol name = (Symbol)constants[readShort(code)];
+          int index = globals.indexOf(name);
+          if (index < 0) {
+            throw error("Undefined variable '" + name.name + "'.");
+          }
+          push(globals.get(index));
+          break;
+        }
+        case OpCode.DefineGlobal:
+          globals.define((Symbol)constants[readShort(code)], pop());
+          break;
+        case OpCode.SetGlobal: {
+          Symbol name = (Symbol)constants[readShort(code)];
+          int index = globals.indexOf(name);
+          if (index < 0) {
+            throw error("Undefined variable '" + name.name + "'.");
+          }
+          globals.set(index, stack[stackTop - 1]);
+          break;
+        }
+        case OpCode.Equal: {
+          Object b = pop();
+          Object a = pop();
+          push(isEqual(a, b));
+          break;
+        }
+        case OpCode.NotEqual: {
+          Object b = pop();
+          Object a = pop();
+          push(!isEqual(a, b));
+          break;
+        }
+        case OpCode.Greater: {
+          checkNumberOperands();
+          double b = (double)pop();
+          double a = (double)pop();
+          push(a > b);
+          break;
+        }
+        case OpCode.GreaterEqual: {
+          checkNumberOperands();
+          double b = (double)pop();
+          double a = (double)pop();
+          push(a >= b);
+          break;
+        }
+        case OpCode.Less: {
+          checkNumberOperands();
+          double b = (double)pop();
+          double a = (double)pop();
+          push(a < b);
+          break;
+        }
+        case OpCode.LessEqual: {
+          checkNumberOperands();
+          double b = (double)pop();
+          double a = (double)pop();
+          push(a <= b);
+          break;
+        }
+        case OpCode.Add: {
+          Object b = pop();
+          Object a = pop();
+          if (isString(a) || isString(b)) {
+            Object result = LoxString.concat(a, b);
+            if (limits != null) limits.checkString(result, chunk.lines[ip - 1]);
+            push(result);
+          } else if (a instanceof Double && b instanceof Double) {
+            push((double)a + (double)b);
+          } else {
+            throw error("Operands must be two numbers or two strings.");
+          }
+          break;
+        }
+        case OpCode.Subtract: {
+          checkNumberOperands();
+          double b = (double)pop();
+          double a = (double)pop();
+          push(a - b);
+          break;
+        }
+        case OpCode.Multiply: {
+          checkNumberOperands();
+          double b = (double)pop();
+          double a = (double)pop();
+          push(a * b);
+          break;
+        }
+        case OpCode.Divide: {
+          checkNumberOperands();
+          double b = (double)pop();
+          double a = (double)pop();
+          push(a / b);
+          break;
+        }
+        case OpCode.Not:
+          push(!isTruthy(pop()));
+          break;
+        case OpCode.Negate: {
+          Object value = pop();
+          if (!(value instanceof Double)) {
+            throw error("Operand must be a number");
+          }
+          push(-(double)value);
+          break;
+        }
+        case OpCode.Print: {
+          Object value = pop();
+          if (value instanceof Double) {
+            out.println((double)value);
+          } else {
+            out.println(stringify(value));
+          }
+          break;
+        }
+        case OpCode.Jump: {
+          int offset = readShort(code);
+          ip += offset;
+          break;
+        }
+        case OpCode.JumpIfFalse: {
+          int offset = readShort(code);
+          if (!isTruthy(stack[stackTop - 1])) ip += offset;
+          break;
+        }
+        case OpCode.Loop: {
+          int offset = readShort(code);
+          if (--steps < 0) steps = meter.next(chunk.lines[ip - 1]);
+          ip -= offset;
+          break;
+        }
+        default:
+          throw new IllegalStateException("Unknown opcode " + instruction);
+      }
+    }
+  }
+
+  private int readShort(byte[] code) {
+    ip += 2;
+    return ((code[ip - 2] & 0xff) << 8) | (code[ip - 1] & 0xff);
+  }
+
+  private void push(Object value) {
+    if (stackTop == stack.length) {
+      stack = Arrays.copyOf(stack, stackTop * 2);
+    }
+    stack[stackTop++] = value;
+  }
+
+  private Object pop() {
+    Object value = stack[--stackTop];
+    stack[stackTop] = null;
+    return value;
+  }
+
+  private void checkNumberOperands() {
+    if (stack[stackTop - 1] instanceof Double && stack[stackTop - 2] instanceof Double) return;
+    throw error("Operands must be numbers.");
+  }
+
+  // The line of the failing instruction is what the error reporter shows.
+  private RuntimeError error(String message) {
+    int line = chunk.lines[ip - 1];
+    return new RuntimeError(new Token(TokenType.Eof, "", null, line), message);
+  }
+}
@@ -0,0 +1,160 @@
+package com.tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Differential test runner: runs every .jlox script in a directory with both
+// execution engines, with and without the optimizer, and checks that stdout,
+// stderr and the exit code agree. Each engine also runs every script with its
+// stdout a pipe that is already closed, like 'jlox script | head -1' once head
+// has exited: the output is lost, but stderr and the exit code must not change.
+public class EngineDiff {
+  private static final String[] REFERENCE = { "--engine=tree", "--jit-threshold=0" };
+  private static final String[][] CONFIGURATIONS = {
+    { "--engine=vm" },
+    { "--engine=tree", "--optimize" },
+    { "--engine=vm", "--optimize" },
+    // compile every loop after its first iteration
+    { "--engine=tree", "--jit-threshold=1" },
+  };
+  private static final String[][] CLOSED_STDOUT = {
+    REFERENCE,
+    { "--engine=vm" },
+  };
+
+  public static void main(String args[]) throws IOException, InterruptedException {
+    if (args.length != 1) {
+      System.err.println("Usage: engine_diff <corpus directory>");
+      System.exit(64);
+    }
+
+    List<Path> scripts;
+    try (Stream<Path> files = Files.list(Paths.get(args[0]))) {
+      scripts = files
+          .filter(path -> path.toString().endsWith(".jlox"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+
+    int failures = 0;
+    for (Path script : scripts) {
+      // the unoptimized tree-walker without the loop compiler is the reference every other configuration must match
+      Result expected = run(script, REFERENCE);
+      boolean agree = true;
+      for (String[] configuration : CONFIGURATIONS) {
+        Result actual = run(script, configuration);
+        if (!expected.equals(actual)) {
+          if (agree) System.out.println("FAIL  " + script.getFileName());
+          agree = false;
+          System.out.println("  " + String.join(" ", REFERENCE) + ": " + expected);
+          System.out.println("  " + String.join(" ", configuration) + ": " + actual);
+        }
+      }
+      Result withoutStdout = new Result(expected.code, "", expected.stderr);
+      for (String[] configuration : CLOSED_STDOUT) {
+        Result actual = runClosedStdout(script, configuration);
+        if (!withoutStdout.equals(actual)) {
+          if (agree) System.out.println("FAIL  " + script.getFileName());
+          agree = false;
+          System.out.println("  " + String.join(" ", REFERENCE) + ": " + expected);
+          System.out.println("  " + String.join(" ", configuration) + " > closed pipe: " + actual);
+        }
+      }
+
+      if (agree) {
+        System.out.println("ok    " + script.getFileName());
+      } else {
+        failures++;
+      }
+    }
+
+    System.out.println(scripts.size() - failures + "/" + scripts.size() + " scripts agree");
+    if (failures > 0) System.exit(1);
+  }
+
+  private static List<String> command(Path script, String[] options) {
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    List<String> command = new ArrayList<>(Arrays.asList(
+        java, "-cp", System.getProperty("java.class.path"), "com.JLox.Main"));
+    command.addAll(Arrays.asList(options));
+    command.add(script.toString());
+    return command;
+  }
+
+  private static Result run(Path script, String[] options) throws IOException, InterruptedException {
+    List<String> command = command(script, options);
+    File out = File.createTempFile("jlox", ".out");
+    File err = File.createTempFile("jlox", ".err");
+    try {
+      Process process = new ProcessBuilder(command)
+          .redirectOutput(out)
+          .redirectError(err)
+          .start();
+      int code = process.waitFor();
+      return new Result(code,
+          new String(Files.readAllBytes(out.toPath()), StandardCharsets.UTF_8),
+          new String(Files.readAllBytes(err.toPath()), StandardCharsets.UTF_8));
+    } finally {
+      out.delete();
+      err.delete();
+    }
+  }
+
+  // stdout is a pipe whose reading end is closed right away; stdout comes back empty
+  private static Result runClosedStdout(Path script, String[] options) throws IOException, InterruptedException {
+    File err = File.createTempFile("jlox", ".err");
+    try {
+      Process process = new ProcessBuilder(command(script, options))
+          .redirectError(err)
+          .start();
+      process.getInputStream().close();
+      int code = process.waitFor();
+      return new Result(code, "", new String(Files.readAllBytes(err.toPath()), StandardCharsets.UTF_8));
+    } finally {
+      err.delete();
+    }
+  }
+
+  private static class Result {
+    final int code;
+    final String stdout;
+    final String stderr;
+
+    Result(int code, String stdout, String stderr) {
+      this.code = code;
+      this.stdout = stdout;
+      this.stderr = stderr;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Result)) return false;
+      Result that = (Result)other;
+      return code == that.code && stdout.equals(that.stdout) && stderr.equals(that.stderr);
+    }
+
+    @Override
+    public int hashCode() {
+      return code;
+    }
+
+    @Override
+    public String toString() {
+      return "exit " + code + ", stdout " + quote(stdout) + ", stderr " + quote(stderr);
+    }
+
+    private static String quote(String text) {
+      if (text.length() > 200) text = text.substring(0, 200) + "...";
+      return "\"" + text.replace("\n", "\\n") + "\"";
+    }
+  }
+}
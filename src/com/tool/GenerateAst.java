@@ -12,27 +12,28 @@ public class GenerateAst {
       System.exit(64);
     }
     String outputDir = args[0];
-    defineAst(outputDir, "Expr", Arrays.asList(
-   "Assign    : Token name, Expr value",
-        "Binary    : Expr left, Token operator, Expr right",
+    defineAst(outputDir, "Expr", null, Arrays.asList(
+   "Assign    : Token name, Expr value | int depth = -1, int slot = -1, int fused",
+        "Binary    : Expr left, Token operator, Expr right | int state, int operands",
         "Grouping  : Expr expression",
         "Literal   : Object value",
         "Logical   : Expr left, Token operator, Expr right",
-        "Unary     : Token operator, Expr right",
-        "Variable  : Token name"
+        "Unary     : Token operator, Expr right | int state",
+        "Variable  : Token name | int depth = -1, int slot = -1"
     ));
 
-    defineAst(outputDir, "Stmt", Arrays.asList(
-      "Block      : List<Stmt> statements",
+    // the line a statement starts on, for the profiler
+    defineAst(outputDir, "Stmt", "int line", Arrays.asList(
+      "Block      : List<Stmt> statements | int slots",
            "Expression : Expr expression",
            "If         : Expr condition, Stmt thenBranch," + " Stmt elseBranch",
            "Print      : Expr expression",
-           "Var        : Token name, Expr initializer",
-           "While      : Expr condition, Stmt body"
+           "Var        : Token name, Expr initializer | int slot = -1",
+           "While      : Expr condition, Stmt body | int backedges, Object compiled"
     ));
   }
 
-  private static void defineAst(String outputDir, String basename, List<String> types) throws IOException {
+  private static void defineAst(String outputDir, String basename, String baseFields, List<String> types) throws IOException {
     String path = outputDir + "/" + basename + ".java";
     PrintWriter writer = new PrintWriter(path, "UTF-8");
 
@@ -45,11 +46,25 @@ public class GenerateAst {
 
     defineVisitor(writer, basename, types);
 
+    // fields every node has, also filled in after construction
+    if (baseFields != null) {
+      writer.println();
+      for (String field : baseFields.split(", ")) {
+        writer.println("  public " + field + ";");
+      }
+    }
+
     // The AST classes.
     for (String type : types) {
       String className = type.split(":")[0].trim();
       String fields = type.split(":")[1].trim();
-      defineType(writer, basename, className, fields);
+      // fields after '|' are filled in by later passes (e.g. the resolver)
+      String mutableFields = null;
+      if (fields.contains("|")) {
+        mutableFields = fields.split("\\|")[1].trim();
+        fields = fields.split("\\|")[0].trim();
+      }
+      defineType(writer, basename, className, fields, mutableFields);
     }
 
     writer.println();
@@ -70,7 +85,7 @@ public class GenerateAst {
     writer.println("  }");
   }
 
-  private static void defineType(PrintWriter writer, String basename, String className, String fieldList) {
+  private static void defineType(PrintWriter writer, String basename, String className, String fieldList, String mutableFieldList) {
     writer.println();
     writer.println(" public static class " + className + " extends " + basename + " {");
 
@@ -99,6 +114,13 @@ public class GenerateAst {
       writer.println("    public final " + field + ";");
     }
 
+    if (mutableFieldList != null) {
+      writer.println();
+      for (String field : mutableFieldList.split(", ")) {
+        writer.println("    public " + field + ";");
+      }
+    }
+
     writer.println("  }");
 
   }